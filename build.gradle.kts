@@ -62,6 +62,16 @@ dependencies {
         // Remote dependency (version may need adjustment to one present in the repo you target)
         compileOnly("com.comphenix.protocol:ProtocolLib:5.0.0")
     }
+
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testImplementation("org.mockito:mockito-core:5.14.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+// The tests run against the same server API the plugin compiles against
+configurations.testImplementation {
+    extendsFrom(configurations.compileOnly.get())
 }
 
 tasks {
@@ -72,6 +82,13 @@ tasks {
         // See https://openjdk.java.net/jeps/247 for more information.
     options.release.set(21)
     }
+    compileTestJava {
+        options.encoding = Charsets.UTF_8.name()
+        options.release.set(21)
+    }
+    test {
+        useJUnitPlatform()
+    }
     javadoc {
         options.encoding = Charsets.UTF_8.name() // We want UTF-8 for everything
     }
@@ -0,0 +1,29 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class AutosaveTask extends BukkitRunnable {
+
+    private final WaypointsPlugin plugin;
+    private CompletableFuture<Void> pendingSave;
+
+    public AutosaveTask(final WaypointsPlugin plugin) {
+        this.plugin = plugin;
+        final var period = plugin.getAutosaveInterval() * 20L;
+        runTaskTimer(plugin, period, period);
+    }
+
+    @Override
+    public void run() {
+        // Changes made while a write is still in flight are picked up by the next run
+        if (pendingSave != null && !pendingSave.isDone()) {
+            return;
+        }
+        if (!plugin.hasUnsavedData()) {
+            return;
+        }
+        pendingSave = plugin.saveData();
+    }
+}
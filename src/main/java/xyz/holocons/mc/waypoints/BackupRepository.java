@@ -0,0 +1,467 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Incremental backups of the data folder. Files are split into chunks that
+ * are stored once under their SHA-256, and each backup is a manifest listing
+ * the chunks of the files that changed or were removed since its parent, the
+ * backup before it, so a backup only adds the chunks and manifest lines that
+ * changed since the last one. Must only be used on the plugin's I/O executor,
+ * apart from the chunk writes a {@link BackupWriter} hands to its workers.
+ */
+public class BackupRepository {
+
+    public static final String DIRECTORY = "backups";
+
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * How many backups to keep: the newest one in each of the last
+     * {@code hourly} hours, {@code daily} days and {@code weekly} weeks that
+     * have any. The newest backup is always kept.
+     */
+    public record Retention(int hourly, int daily, int weekly) {
+    }
+
+    record Entry(String name, long size, List<String> chunks) {
+    }
+
+    @FunctionalInterface
+    interface OpenAction {
+        void open() throws IOException;
+    }
+
+    /**
+     * @param parent  the backup this one is based on, or {@code null}
+     * @param changed the files added or changed since the parent
+     * @param removed the names of the files removed since the parent
+     */
+    private record Manifest(String parent, List<Entry> changed, List<String> removed) {
+    }
+
+    private final File dataFolder;
+    private final File chunkDirectory;
+    private final File manifestDirectory;
+    private final File stagingDirectory;
+    private final File previousDirectory;
+    // The newest backup and all of its files, once read
+    private String latestId;
+    private Map<String, Entry> latestEntries;
+
+    public BackupRepository(File dataFolder) {
+        final var directory = new File(dataFolder, DIRECTORY);
+        this.dataFolder = dataFolder;
+        this.chunkDirectory = new File(directory, "chunks");
+        this.manifestDirectory = new File(directory, "manifests");
+        this.stagingDirectory = new File(directory, "restore");
+        this.previousDirectory = new File(directory, "previous");
+    }
+
+    /**
+     * @param compressionLevel the deflate level of new chunks, from 0 to 9
+     */
+    public BackupWriter begin(int compressionLevel) {
+        return new BackupWriter(this, dataFolder, Math.max(0, Math.min(9, compressionLevel)));
+    }
+
+    /**
+     * @return the ids of all backups, oldest first
+     */
+    public List<String> list() {
+        final var files = manifestDirectory.listFiles((directory, name) -> name.endsWith(MANIFEST_EXTENSION));
+        if (files == null) {
+            return List.of();
+        }
+        return Arrays.stream(files)
+                .map(file -> file.getName().substring(0, file.getName().length() - MANIFEST_EXTENSION.length()))
+                .filter(id -> parseId(id) != null)
+                .sorted()
+                .toList();
+    }
+
+    static String hash(byte[] buffer, int offset, int length) {
+        final var digest = newDigest();
+        digest.update(buffer, offset, length);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return every file of the newest backup by name, or an empty map if
+     *         there is none
+     */
+    Map<String, Entry> getLatestEntries() throws IOException {
+        if (latestEntries == null) {
+            final var ids = list();
+            latestId = ids.isEmpty() ? null : ids.get(ids.size() - 1);
+            latestEntries = latestId != null ? resolve(latestId, new HashMap<>()) : Map.of();
+        }
+        return latestEntries;
+    }
+
+    boolean hasChunk(String hash) {
+        return getChunkFile(hash).exists();
+    }
+
+    /**
+     * Chunks are stored deflated. Safe to call from any thread, as long as no
+     * two threads store the same chunk at once.
+     */
+    void storeChunk(String hash, byte[] chunk, int compressionLevel) throws IOException {
+        FileStorage.writeAtomically(getChunkFile(hash), tempFile -> {
+            final var deflater = new Deflater(compressionLevel);
+            try (final var outputStream = new DeflaterOutputStream(new FileOutputStream(tempFile), deflater)) {
+                outputStream.write(chunk);
+            } finally {
+                deflater.end();
+            }
+        });
+    }
+
+    private byte[] readChunk(String hash) throws IOException {
+        try (final var inputStream = new InflaterInputStream(new FileInputStream(getChunkFile(hash)))) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    /**
+     * Writes a backup of {@code entries}, every file by name, as the changes
+     * since the newest backup.
+     */
+    String commit(Map<String, Entry> entries) throws IOException {
+        final var parentEntries = getLatestEntries();
+        var time = Instant.now();
+        var id = ID_FORMAT.format(time.atOffset(ZoneOffset.UTC));
+        while (getManifestFile(id).exists()) {
+            time = time.plusSeconds(1);
+            id = ID_FORMAT.format(time.atOffset(ZoneOffset.UTC));
+        }
+        writeManifest(id, diff(latestId, entries, parentEntries));
+        latestId = id;
+        latestEntries = entries;
+        return id;
+    }
+
+    private static Manifest diff(String parent, Map<String, Entry> entries, Map<String, Entry> parentEntries) {
+        final var changed = entries.values().stream()
+                .filter(entry -> !entry.equals(parentEntries.get(entry.name())))
+                .toList();
+        final var removed = parentEntries.keySet().stream()
+                .filter(name -> !entries.containsKey(name))
+                .toList();
+        return new Manifest(parent, changed, removed);
+    }
+
+    /**
+     * Rebuilds the files of a backup in a staging directory, checking every
+     * chunk against its hash, so nothing live is touched until the whole
+     * backup is known to be intact.
+     */
+    public void stage(String id) throws IOException {
+        final var entries = resolve(id, new HashMap<>());
+        deleteRecursively(stagingDirectory);
+        stagingDirectory.mkdirs();
+        final var root = stagingDirectory.getAbsoluteFile().toPath().normalize();
+        for (final var entry : entries.values()) {
+            final var target = root.resolve(entry.name()).normalize();
+            if (!target.startsWith(root)) {
+                throw new IOException("Invalid file name " + entry.name() + " in backup " + id);
+            }
+            target.getParent().toFile().mkdirs();
+            try (final var outputStream = new FileOutputStream(target.toFile())) {
+                for (final var hash : entry.chunks()) {
+                    final var chunk = readChunk(hash);
+                    if (!hash(chunk, 0, chunk.length).equals(hash)) {
+                        throw new IOException("Corrupt chunk " + hash + " in backup " + id);
+                    }
+                    outputStream.write(chunk);
+                }
+            }
+            if (Files.size(target) != entry.size()) {
+                throw new IOException("Size mismatch for " + entry.name() + " in backup " + id);
+            }
+        }
+    }
+
+    /**
+     * Moves {@code replaced}, the files and directories of the closed
+     * storage, aside, moves the files staged by {@link #stage(String)} into
+     * the data folder and opens them with {@code action}. The replaced files
+     * are only deleted once that succeeded. Otherwise everything at their
+     * paths and every installed file is removed again, and the replaced
+     * files are put back, so the caller can reopen them.
+     */
+    public void install(List<File> replaced, OpenAction action) throws IOException {
+        deleteRecursively(previousDirectory);
+        final var data = dataFolder.getAbsoluteFile().toPath();
+        final var previous = previousDirectory.getAbsoluteFile().toPath();
+        final var root = stagingDirectory.getAbsoluteFile().toPath();
+        final var moved = new ArrayList<Path>();
+        final var installed = new ArrayList<Path>();
+        try {
+            for (final var file : replaced) {
+                final var path = file.getAbsoluteFile().toPath();
+                if (Files.exists(path)) {
+                    final var target = previous.resolve(data.relativize(path));
+                    target.getParent().toFile().mkdirs();
+                    Files.move(path, target);
+                    moved.add(path);
+                }
+            }
+            try (final var paths = Files.walk(root)) {
+                for (final var path : paths.filter(Files::isRegularFile).toList()) {
+                    final var target = data.resolve(root.relativize(path));
+                    target.getParent().toFile().mkdirs();
+                    Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+                    installed.add(target);
+                }
+            }
+            action.open();
+        } catch (IOException | RuntimeException e) {
+            try {
+                for (final var path : installed) {
+                    Files.deleteIfExists(path);
+                }
+                for (final var file : replaced) {
+                    deleteRecursively(file);
+                }
+                for (final var path : moved) {
+                    Files.move(previous.resolve(data.relativize(path)), path);
+                }
+            } catch (IOException rollbackException) {
+                e.addSuppressed(rollbackException);
+            }
+            throw e;
+        }
+        deleteRecursively(previousDirectory);
+        deleteRecursively(stagingDirectory);
+    }
+
+    /**
+     * Deletes the backups {@code retention} does not keep, then every chunk
+     * no remaining backup refers to. A kept backup whose parent is deleted is
+     * first rewritten against the newest kept backup before it.
+     *
+     * @return the number of backups deleted
+     */
+    public int prune(Retention retention) throws IOException {
+        final var ids = new ArrayList<>(list());
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        ids.sort(Comparator.reverseOrder());
+        final var keep = new HashSet<String>();
+        keep.add(ids.get(0));
+        keepNewestPerPeriod(ids, retention.hourly(), 3600L, keep);
+        keepNewestPerPeriod(ids, retention.daily(), 86400L, keep);
+        keepNewestPerPeriod(ids, retention.weekly(), 604800L, keep);
+
+        final var resolved = new HashMap<String, Map<String, Entry>>();
+        final var referenced = new HashSet<String>();
+        String previousKept = null;
+        // Oldest first, so every rewritten backup is based on one that stays
+        for (var i = ids.size() - 1; i >= 0; i--) {
+            final var id = ids.get(i);
+            if (!keep.contains(id)) {
+                continue;
+            }
+            final var entries = resolve(id, resolved);
+            final var parent = readManifest(id).parent();
+            if (parent != null && !keep.contains(parent)) {
+                final var parentEntries = previousKept != null
+                        ? resolve(previousKept, resolved)
+                        : Map.<String, Entry>of();
+                writeManifest(id, diff(previousKept, entries, parentEntries));
+            }
+            entries.values().forEach(entry -> referenced.addAll(entry.chunks()));
+            previousKept = id;
+        }
+        var deleted = 0;
+        for (final var id : ids) {
+            if (!keep.contains(id)) {
+                Files.delete(getManifestFile(id).toPath());
+                deleted++;
+            }
+        }
+
+        if (chunkDirectory.exists()) {
+            try (final var paths = Files.walk(chunkDirectory.toPath(), 2)) {
+                for (final var path : paths.filter(Files::isRegularFile).toList()) {
+                    if (!referenced.contains(path.getFileName().toString())) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @param ids backup ids, newest first
+     */
+    private static void keepNewestPerPeriod(List<String> ids, int count, long seconds, Set<String> keep) {
+        var lastPeriod = Long.MIN_VALUE;
+        var kept = 0;
+        for (final var id : ids) {
+            if (kept >= count) {
+                break;
+            }
+            final var period = parseId(id).getEpochSecond() / seconds;
+            if (period != lastPeriod) {
+                keep.add(id);
+                lastPeriod = period;
+                kept++;
+            }
+        }
+    }
+
+    /**
+     * @return every file of the backup {@code id} by name, after applying
+     *         the changes of each backup since the first one without a parent
+     * @param resolved the files of backups resolved before, which is updated
+     */
+    private Map<String, Entry> resolve(String id, Map<String, Map<String, Entry>> resolved) throws IOException {
+        final var chain = new ArrayList<Manifest>();
+        Map<String, Entry> base = null;
+        for (var current = id; current != null && base == null;) {
+            base = resolved.get(current);
+            if (base == null) {
+                final var manifest = readManifest(current);
+                chain.add(manifest);
+                current = manifest.parent();
+            }
+        }
+        final var entries = base != null ? new LinkedHashMap<>(base) : new LinkedHashMap<String, Entry>();
+        for (var i = chain.size() - 1; i >= 0; i--) {
+            final var manifest = chain.get(i);
+            manifest.removed().forEach(entries::remove);
+            manifest.changed().forEach(entry -> entries.put(entry.name(), entry));
+        }
+        resolved.put(id, entries);
+        return entries;
+    }
+
+    /**
+     * Each line is a changed file as its size, name and chunks, a removed
+     * file as {@code -} and its name, or the parent as {@code parent} and its
+     * id.
+     */
+    private void writeManifest(String id, Manifest manifest) throws IOException {
+        FileStorage.writeAtomically(getManifestFile(id), file -> {
+            try (final var writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8))) {
+                if (manifest.parent() != null) {
+                    writer.write("parent\t" + manifest.parent());
+                    writer.newLine();
+                }
+                for (final var name : manifest.removed()) {
+                    writer.write("-\t" + name);
+                    writer.newLine();
+                }
+                for (final var entry : manifest.changed()) {
+                    writer.write(entry.size() + "\t" + entry.name() + "\t" + String.join(",", entry.chunks()));
+                    writer.newLine();
+                }
+            }
+        });
+    }
+
+    private Manifest readManifest(String id) throws IOException {
+        final var file = getManifestFile(id);
+        if (parseId(id) == null || !file.exists()) {
+            throw new IOException("No backup named " + id);
+        }
+        String parent = null;
+        final var changed = new ArrayList<Entry>();
+        final var removed = new ArrayList<String>();
+        try (final var reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final var fields = line.split("\t", 3);
+                if (fields.length == 2 && fields[0].equals("parent")) {
+                    parent = fields[1];
+                } else if (fields.length == 2 && fields[0].equals("-")) {
+                    removed.add(fields[1]);
+                } else if (fields.length == 3) {
+                    final var chunks = fields[2].isEmpty() ? List.<String>of() : List.of(fields[2].split(","));
+                    changed.add(new Entry(fields[1], Long.parseLong(fields[0]), chunks));
+                } else {
+                    throw new IOException("Malformed manifest " + file.getName());
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed manifest " + file.getName(), e);
+        }
+        // Ids sort by time, so this also rules out cycles
+        if (parent != null && parent.compareTo(id) >= 0) {
+            throw new IOException("Malformed manifest " + file.getName());
+        }
+        return new Manifest(parent, changed, removed);
+    }
+
+    private static Instant parseId(String id) {
+        try {
+            return LocalDateTime.parse(id, ID_FORMAT).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private File getManifestFile(String id) {
+        return new File(manifestDirectory, id + MANIFEST_EXTENSION);
+    }
+
+    private File getChunkFile(String hash) {
+        return new File(new File(chunkDirectory, hash.substring(0, 2)), hash);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteRecursively(File directory) throws IOException {
+        if (!directory.exists()) {
+            return;
+        }
+        try (final var paths = Files.walk(directory.toPath())) {
+            for (final var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Collects the entries of one backup. Each entry is serialized in memory and
+ * cut into chunks at content-defined boundaries, so an insertion only changes
+ * the chunks around it. Chunks the repository does not have yet are
+ * compressed and written on a small worker pool while the next entries are
+ * serialized. Files known not to have changed can instead be carried over
+ * from the previous backup without being serialized.
+ */
+public class BackupWriter implements Closeable {
+
+    @FunctionalInterface
+    interface EntryWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    private static final int MIN_CHUNK_SIZE = 2 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final long BOUNDARY_MASK = 0x1FFFL << 51; // about 8 KiB per chunk on average
+    private static final long[] GEAR = new SplittableRandom(0x57485750L).longs(256).toArray();
+
+    private final BackupRepository repository;
+    private final File dataFolder;
+    private final int compressionLevel;
+    private final ExecutorService compressor;
+    private final LinkedHashMap<String, BackupRepository.Entry> entries;
+    private final ArrayList<Future<?>> pendingChunks;
+    private final HashSet<String> storedChunks;
+    private final ByteArrayOutputStream buffer;
+
+    BackupWriter(BackupRepository repository, File dataFolder, int compressionLevel) {
+        final var threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        this.repository = repository;
+        this.dataFolder = dataFolder;
+        this.compressionLevel = compressionLevel;
+        this.compressor = Executors.newFixedThreadPool(threads, runnable -> {
+            final var thread = new Thread(runnable, "Waypoints backup compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.entries = new LinkedHashMap<>();
+        this.pendingChunks = new ArrayList<>();
+        this.storedChunks = new HashSet<>();
+        this.buffer = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Adds whatever {@code action} writes, to be restored as {@code file}
+     * inside the data folder.
+     */
+    public void addEntry(final File file, final EntryWriter action) throws IOException {
+        buffer.reset();
+        action.write(buffer);
+        final var data = buffer.toByteArray();
+
+        final var chunks = new ArrayList<String>();
+        var start = 0;
+        var hash = 0L;
+        for (var i = 0; i < data.length; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            final var length = i + 1 - start;
+            if (length == MAX_CHUNK_SIZE || length >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) {
+                chunks.add(addChunk(data, start, length));
+                start = i + 1;
+                hash = 0L;
+            }
+        }
+        if (start < data.length) {
+            chunks.add(addChunk(data, start, data.length - start));
+        }
+        final var name = getName(file);
+        entries.put(name, new BackupRepository.Entry(name, data.length, chunks));
+    }
+
+    /**
+     * @return whether the previous backup has {@code file}
+     */
+    public boolean hasPrevious(File file) throws IOException {
+        return repository.getLatestEntries().containsKey(getName(file));
+    }
+
+    /**
+     * Carries over every file the previous backup has inside
+     * {@code directory}. Entries added afterwards replace them.
+     */
+    public void keepAll(File directory) throws IOException {
+        final var prefix = getName(directory) + '/';
+        for (final var entry : repository.getLatestEntries().values()) {
+            if (entry.name().startsWith(prefix)) {
+                entries.put(entry.name(), entry);
+            }
+        }
+    }
+
+    /**
+     * Leaves {@code file} out of this backup, even if it was carried over.
+     */
+    public void remove(File file) {
+        entries.remove(getName(file));
+    }
+
+    private String addChunk(byte[] data, int offset, int length) {
+        final var hash = BackupRepository.hash(data, offset, length);
+        if (storedChunks.add(hash) && !repository.hasChunk(hash)) {
+            final var chunk = Arrays.copyOfRange(data, offset, offset + length);
+            pendingChunks.add(compressor.submit(() -> {
+                repository.storeChunk(hash, chunk, compressionLevel);
+                return null;
+            }));
+        }
+        return hash;
+    }
+
+    /**
+     * Waits for every chunk to be written, then writes the manifest of this
+     * backup.
+     *
+     * @return the id of the backup
+     */
+    public String commit() throws IOException {
+        try {
+            for (final var pendingChunk : pendingChunks) {
+                pendingChunk.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return repository.commit(entries);
+    }
+
+    @Override
+    public void close() {
+        compressor.shutdownNow();
+    }
+
+    private String getName(File file) {
+        final var path = dataFolder.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath());
+        return path.toString().replace(File.separatorChar, '/');
+    }
+}
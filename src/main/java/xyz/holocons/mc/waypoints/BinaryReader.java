@@ -0,0 +1,179 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
+/**
+ * Reads files written by {@link BinaryWriter}.
+ */
+public class BinaryReader extends DataInputStream {
+
+    public BinaryReader(final File file) throws FileNotFoundException {
+        super(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private void readHeader(byte type) throws IOException {
+        final var magic = readInt();
+        if (magic != BinaryWriter.MAGIC) {
+            throw new IOException("Unrecognized file format");
+        }
+        final var version = readUnsignedShort();
+        if (version > BinaryWriter.VERSION) {
+            throw new IOException("Unsupported format version: " + version);
+        }
+        final var actualType = readByte();
+        if (actualType != type) {
+            throw new IOException("Unexpected content type: " + actualType);
+        }
+    }
+
+    private DataInputStream readRecord() throws IOException {
+        final var length = readInt();
+        final var bytes = readNBytes(length);
+        if (bytes.length != length) {
+            throw new IOException("Truncated record");
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    public HashMap<Integer, Waypoint> readWaypointMap() throws IOException {
+        readHeader(BinaryWriter.WAYPOINT_MAP);
+
+        final var size = readInt();
+        HashMap<Integer, Waypoint> map = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            final var waypoint = readWaypoint(readRecord());
+            map.put(waypoint.getId(), waypoint);
+        }
+
+        return map.isEmpty() ? null : map;
+    }
+
+    public Traveler readTravelerFile() throws IOException {
+        readHeader(BinaryWriter.TRAVELER);
+        return readTraveler(readRecord());
+    }
+
+    public void readCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        readHeader(BinaryWriter.CAMP_BANNER_DATA);
+
+        final var campBannerCount = readInt();
+        for (int i = 0; i < campBannerCount; i++) {
+            final var record = readRecord();
+            final var location = readLocation(record);
+            final var owner = readUUID(record);
+            if (location != null) {
+                campBanners.put(location, owner);
+            }
+        }
+
+        final var bannerDesignCount = readInt();
+        for (int i = 0; i < bannerDesignCount; i++) {
+            final var record = readRecord();
+            final var playerId = readUUID(record);
+            bannerDesigns.put(playerId, readBannerDesign(record));
+        }
+    }
+
+    private static Waypoint readWaypoint(DataInputStream record) throws IOException {
+        final var id = record.readInt();
+        final var location = readLocation(record);
+        final var contributors = readArrayListUUID(record);
+        final var active = record.readBoolean();
+        final var banner = record.available() > 0 ? readBannerSnapshot(record) : null;
+        return new Waypoint(id, location, contributors, active, banner);
+    }
+
+    private static Traveler readTraveler(DataInputStream record) throws IOException {
+        final var charges = record.readInt();
+        final var tokens = record.readInt();
+        final var home = readLocation(record);
+        final var camp = readLocation(record);
+        final var waypoints = readBitSet(record);
+        return new Traveler(charges, tokens, home, camp, waypoints);
+    }
+
+    private static BlockPos readLocation(DataInputStream record) throws IOException {
+        if (!record.readBoolean()) {
+            return null;
+        }
+        return DataType.BLOCK_POS.fromPrimitive(record.readNBytes(BinaryWriter.LOCATION_BYTES), null);
+    }
+
+    private static UUID readUUID(DataInputStream record) throws IOException {
+        return DataType.UUID.fromPrimitive(record.readNBytes(BinaryWriter.UUID_BYTES), null);
+    }
+
+    private static BitSet readBitSet(DataInputStream record) throws IOException {
+        final var length = record.readInt();
+        return BitSet.valueOf(record.readNBytes(length));
+    }
+
+    private static ArrayList<UUID> readArrayListUUID(DataInputStream record) throws IOException {
+        final var size = record.readInt();
+        ArrayList<UUID> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readUUID(record));
+        }
+        return list;
+    }
+
+    /**
+     * Also used by the {@link Journal} for camp banner designs.
+     */
+    static CampBannerMap.BannerDesign readBannerDesign(DataInputStream record) throws IOException {
+        Material material;
+        try {
+            material = Material.valueOf(record.readUTF());
+        } catch (IllegalArgumentException e) {
+            material = Material.WHITE_BANNER; // fallback
+        }
+
+        final var size = record.readInt();
+        final var patterns = new Pattern[size];
+        for (int i = 0; i < size; i++) {
+            DyeColor color;
+            try {
+                color = DyeColor.valueOf(record.readUTF());
+            } catch (IllegalArgumentException e) {
+                color = DyeColor.WHITE; // fallback
+            }
+            PatternType patternType;
+            try {
+                patternType = PatternType.valueOf(record.readUTF());
+            } catch (IllegalArgumentException e) {
+                patternType = PatternType.STRIPE_MIDDLE; // fallback
+            }
+            patterns[i] = new Pattern(color, patternType);
+        }
+
+        return new CampBannerMap.BannerDesign(material, patterns);
+    }
+
+    static Waypoint.BannerSnapshot readBannerSnapshot(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final var design = readBannerDesign(in);
+        final var customName = in.readBoolean() ? GsonComponentSerializer.gson().deserialize(in.readUTF()) : null;
+        return new Waypoint.BannerSnapshot(design, customName);
+    }
+}
@@ -0,0 +1,167 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
+/**
+ * Writes the compact binary counterpart of the JSON files. Every file starts
+ * with a header (magic, version, content type) and every record is prefixed
+ * with its length, so readers can skip fields appended by later versions.
+ * Locations and UUIDs use the same encoding as {@link DataType}.
+ */
+public class BinaryWriter extends DataOutputStream {
+
+    public static final int MAGIC = 0x57485750; // "WHWP"
+    public static final int VERSION = 1;
+
+    public static final byte WAYPOINT_MAP = 1;
+    public static final byte TRAVELER = 2;
+    public static final byte CAMP_BANNER_DATA = 3;
+
+    public static final int LOCATION_BYTES = Double.BYTES * 3 + Long.BYTES * 2;
+    public static final int UUID_BYTES = Long.BYTES * 2;
+
+    private final ByteArrayOutputStream recordBuffer;
+    private final DataOutputStream record;
+
+    public BinaryWriter(final File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public BinaryWriter(final OutputStream outputStream) {
+        super(new BufferedOutputStream(outputStream));
+        this.recordBuffer = new ByteArrayOutputStream();
+        this.record = new DataOutputStream(recordBuffer);
+    }
+
+    private void writeHeader(byte type) throws IOException {
+        writeInt(MAGIC);
+        writeShort(VERSION);
+        writeByte(type);
+    }
+
+    private void endRecord() throws IOException {
+        writeInt(recordBuffer.size());
+        recordBuffer.writeTo(this);
+        recordBuffer.reset();
+    }
+
+    public void writeWaypointMap(HashMap<Integer, Waypoint> value) throws IOException {
+        writeHeader(WAYPOINT_MAP);
+        writeInt(value.size());
+        for (final var waypoint : value.values()) {
+            writeWaypoint(waypoint);
+        }
+    }
+
+    public void writeTravelerFile(Traveler value) throws IOException {
+        writeHeader(TRAVELER);
+        writeTraveler(value);
+    }
+
+    public void writeCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        writeHeader(CAMP_BANNER_DATA);
+
+        writeInt(campBanners.size());
+        for (final var entry : campBanners.entrySet()) {
+            writeLocation(entry.getKey());
+            writeUUID(entry.getValue());
+            endRecord();
+        }
+
+        writeInt(bannerDesigns.size());
+        for (final var entry : bannerDesigns.entrySet()) {
+            writeUUID(entry.getKey());
+            writeBannerDesign(entry.getValue());
+            endRecord();
+        }
+    }
+
+    private void writeWaypoint(Waypoint value) throws IOException {
+        record.writeInt(value.getId());
+        writeLocation(value.getPosition());
+        writeArrayListUUID(value.getContributors());
+        record.writeBoolean(value.isActive());
+        writeBannerSnapshot(record, value.getBanner());
+        endRecord();
+    }
+
+    private void writeTraveler(Traveler value) throws IOException {
+        record.writeInt(value.getCharges());
+        record.writeInt(value.getTokens());
+        writeLocation(value.getHome());
+        writeLocation(value.getCamp());
+        writeBitSet(value.getWaypoints());
+        endRecord();
+    }
+
+    private void writeLocation(BlockPos value) throws IOException {
+        record.writeBoolean(value != null);
+        if (value != null) {
+            record.write(DataType.BLOCK_POS.toPrimitive(value, null));
+        }
+    }
+
+    private void writeUUID(UUID value) throws IOException {
+        record.write(DataType.UUID.toPrimitive(value, null));
+    }
+
+    private void writeBitSet(BitSet value) throws IOException {
+        final var bytes = value != null ? value.toByteArray() : new byte[0];
+        record.writeInt(bytes.length);
+        record.write(bytes);
+    }
+
+    private void writeArrayListUUID(ArrayList<UUID> value) throws IOException {
+        final var uniqueIds = value.stream().filter(uniqueId -> uniqueId != null).toList();
+        record.writeInt(uniqueIds.size());
+        for (final var uniqueId : uniqueIds) {
+            writeUUID(uniqueId);
+        }
+    }
+
+    private void writeBannerDesign(CampBannerMap.BannerDesign value) throws IOException {
+        writeBannerDesign(record, value);
+    }
+
+    /**
+     * Also used by the {@link Journal} for camp banner designs.
+     */
+    static void writeBannerDesign(DataOutputStream out, CampBannerMap.BannerDesign value) throws IOException {
+        out.writeUTF(value.getMaterial().name());
+        final var patterns = value.getPatterns();
+        out.writeInt(patterns.length);
+        for (final var pattern : patterns) {
+            out.writeUTF(pattern.getColor().name());
+            out.writeUTF(pattern.getPattern().toString());
+        }
+    }
+
+    /**
+     * Also used by the {@link Journal}, which stores waypoints the same way.
+     */
+    static void writeBannerSnapshot(DataOutputStream out, Waypoint.BannerSnapshot value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value == null) {
+            return;
+        }
+        writeBannerDesign(out, value.design());
+        out.writeBoolean(value.customName() != null);
+        if (value.customName() != null) {
+            out.writeUTF(GsonComponentSerializer.gson().serialize(value.customName()));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * An immutable block position: a {@link WorldIndex} index plus x, y and z
+ * packed into a long the same way as Minecraft does, so it is cheap to keep,
+ * compare and hash. Converted to a {@link Location} only where Bukkit needs
+ * one.
+ */
+public final class BlockPos {
+
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final int CHUNK_BITS = XZ_BITS - 4;
+
+    private final int world;
+    private final long packed;
+
+    private BlockPos(int world, long packed) {
+        this.world = world;
+        this.packed = packed;
+    }
+
+    private BlockPos(int world, int x, int y, int z) {
+        this(world, ((long) x & (1L << XZ_BITS) - 1) << XZ_BITS + Y_BITS
+                | ((long) z & (1L << XZ_BITS) - 1) << Y_BITS
+                | (long) y & (1L << Y_BITS) - 1);
+    }
+
+    public static BlockPos of(Location location) {
+        return new BlockPos(WorldIndex.global().intern(location.getWorld()), location.getBlockX(),
+                location.getBlockY(), location.getBlockZ());
+    }
+
+    public static BlockPos of(Block block) {
+        return new BlockPos(WorldIndex.global().intern(block.getWorld()), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * For data read before the worlds load. See {@link #resolve()}.
+     */
+    public static BlockPos of(String worldName, double x, double y, double z) {
+        return new BlockPos(WorldIndex.global().intern(worldName), floor(x), floor(y), floor(z));
+    }
+
+    /**
+     * For data read before the worlds load. See {@link #resolve()}.
+     */
+    public static BlockPos of(UUID worldId, double x, double y, double z) {
+        return new BlockPos(WorldIndex.global().intern(worldId), floor(x), floor(y), floor(z));
+    }
+
+    private static int floor(double value) {
+        return (int) Math.floor(value);
+    }
+
+    /**
+     * Positions read by name and by UUID only compare equal once they share
+     * an index, so this must be done before they are compared or used as
+     * keys.
+     *
+     * @return the position with the preferred index of its world, or this
+     *         position itself if its world is not loaded
+     */
+    public BlockPos resolve() {
+        final var loaded = getWorld();
+        if (loaded == null) {
+            return this;
+        }
+        final var index = WorldIndex.global().intern(loaded);
+        return index == world ? this : new BlockPos(index, packed);
+    }
+
+    public int getX() {
+        return (int) (packed >> XZ_BITS + Y_BITS);
+    }
+
+    public int getY() {
+        return (int) (packed << 64 - Y_BITS >> 64 - Y_BITS);
+    }
+
+    public int getZ() {
+        return (int) (packed << XZ_BITS >> XZ_BITS + Y_BITS);
+    }
+
+    /**
+     * @return the world, or {@code null} while it is not loaded
+     */
+    public World getWorld() {
+        return WorldIndex.global().getWorld(world);
+    }
+
+    /**
+     * @return the world name, or {@code null} if it is not known
+     */
+    public String getWorldName() {
+        return WorldIndex.global().getName(world);
+    }
+
+    /**
+     * @return the world UUID, or the nil UUID if it is not known
+     */
+    public UUID getWorldId() {
+        return WorldIndex.global().getUID(world);
+    }
+
+    public boolean isIn(World world) {
+        return world != null && world.equals(getWorld());
+    }
+
+    public long getChunkKey() {
+        return Chunk.getChunkKey(getX() >> 4, getZ() >> 4);
+    }
+
+    /**
+     * Same as {@link #getChunkKey()}, but with the world index in the top
+     * bits, so chunks of different worlds never share a key.
+     */
+    public long getWorldChunkKey() {
+        return (long) world << 2 * CHUNK_BITS
+                | ((long) (getX() >> 4) & (1L << CHUNK_BITS) - 1) << CHUNK_BITS
+                | (long) (getZ() >> 4) & (1L << CHUNK_BITS) - 1;
+    }
+
+    /**
+     * @return the squared distance from the corner of the block, ignoring
+     *         the world
+     */
+    public double distanceSquared(Location location) {
+        final var dx = getX() - location.getX();
+        final var dy = getY() - location.getY();
+        final var dz = getZ() - location.getZ();
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the corner of the block, with a {@code null} world while it is
+     *         not loaded
+     */
+    public Location toLocation() {
+        return new Location(getWorld(), getX(), getY(), getZ());
+    }
+
+    public Block getBlock() {
+        return getWorld().getBlockAt(getX(), getY(), getZ());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof BlockPos other && other.world == world && other.packed == packed;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * world + Long.hashCode(packed);
+    }
+
+    @Override
+    public String toString() {
+        return "BlockPos{world=" + WorldIndex.global().describe(world) + ",x=" + getX() + ",y=" + getY() + ",z="
+                + getZ() + '}';
+    }
+}
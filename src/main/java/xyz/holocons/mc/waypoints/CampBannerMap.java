@@ -1,65 +1,82 @@
 package xyz.holocons.mc.waypoints;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Banner;
 import org.bukkit.block.banner.Pattern;
 import org.bukkit.entity.Player;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
 public class CampBannerMap {
 
-    private final Map<Location, UUID> campBanners = new HashMap<>();
-    private final Map<UUID, BannerDesign> playerBannerDesigns = new HashMap<>();
+    public static final String BASENAME = "campbanners";
+
+    // Owners and designs are keyed by player index
+    private final Object2IntOpenHashMap<BlockPos> campBanners = new Object2IntOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<BannerDesign> playerBannerDesigns = new Int2ObjectOpenHashMap<>();
+    private final PlayerIndex players = PlayerIndex.global();
+    private final Journal journal;
+    private boolean dirty;
 
     public CampBannerMap(WaypointsPlugin plugin) {
-        // Constructor for future extensibility
+        campBanners.defaultReturnValue(-1);
+        journal = plugin.getJournal();
     }
 
     /**
      * Checks if a location has a camp banner
      */
-    public boolean isCampBanner(Location location) {
-        return campBanners.containsKey(location);
+    public boolean isCampBanner(BlockPos position) {
+        return campBanners.containsKey(position);
     }
 
     /**
      * Gets the owner of a camp banner at the given location
      */
-    public UUID getCampBannerOwner(Location location) {
-        return campBanners.get(location);
+    public UUID getCampBannerOwner(BlockPos position) {
+        final var owner = campBanners.getInt(position);
+        return owner != -1 ? players.get(owner) : null;
     }
 
     /**
      * Registers a camp banner at the given location
      */
-    public void addCampBanner(Location location, UUID owner) {
-        campBanners.put(location, owner);
+    public void addCampBanner(BlockPos position, UUID owner) {
+        campBanners.put(position, players.intern(owner));
+        dirty = true;
+        journal.campBannerAdded(position, owner);
     }
 
     /**
      * Removes a camp banner from tracking
      */
-    public void removeCampBanner(Location location) {
-        campBanners.remove(location);
+    public void removeCampBanner(BlockPos position) {
+        if (campBanners.removeInt(position) != -1) {
+            dirty = true;
+            journal.campBannerRemoved(position);
+        }
     }
 
     /**
      * Registers a custom banner design for a player
      */
     public void registerBannerDesign(UUID playerId, BannerDesign design) {
-        playerBannerDesigns.put(playerId, design);
+        playerBannerDesigns.put(players.intern(playerId), design);
+        dirty = true;
+        journal.bannerDesignRegistered(playerId, design);
     }
 
     /**
      * Gets a player's registered banner design, or default if none
      */
     public BannerDesign getPlayerBannerDesign(UUID playerId) {
-        return playerBannerDesigns.getOrDefault(playerId, getDefaultBannerDesign());
+        final var design = playerBannerDesigns.get(players.indexOf(playerId));
+        return design != null ? design : getDefaultBannerDesign();
     }
 
     /**
@@ -93,126 +110,59 @@ public class CampBannerMap {
     public void clear() {
         campBanners.clear();
         playerBannerDesigns.clear();
+        dirty = false;
     }
 
     /**
-     * Gets all camp banner locations
+     * Checks if camp banner data changed since it was last loaded or saved
      */
-    public Map<Location, UUID> getAllCampBanners() {
-        return new HashMap<>(campBanners);
+    public boolean isDirty() {
+        return dirty;
     }
 
     /**
-     * Gets all player banner designs
+     * Flags camp banner data as needing to be saved
      */
-    public Map<UUID, BannerDesign> getAllBannerDesigns() {
-        return new HashMap<>(playerBannerDesigns);
+    public void markDirty() {
+        dirty = true;
     }
 
     /**
-     * Saves camp banner data to file
+     * Flags camp banner data as saved
      */
-    public void saveCampBanners(WaypointsPlugin plugin) throws IOException {
-        final var file = new java.io.File(plugin.getDataFolder(), "campbanners.json");
-        try (final var writer = new GsonWriter(file)) {
-            writer.beginObject();
-
-            // Save camp banner locations and owners
-            writer.name("campBanners");
-            writer.beginArray();
-            for (Map.Entry<Location, UUID> entry : campBanners.entrySet()) {
-                writer.beginObject();
-                writer.name("location");
-                writer.writeLocation(entry.getKey());
-                writer.name("owner");
-                writer.writeUUID(entry.getValue());
-                writer.endObject();
-            }
-            writer.endArray();
-
-            // Save player banner designs
-            writer.name("bannerDesigns");
-            writer.beginArray();
-            for (Map.Entry<UUID, BannerDesign> entry : playerBannerDesigns.entrySet()) {
-                writer.beginObject();
-                writer.name("playerId");
-                writer.writeUUID(entry.getKey());
-                writer.name("design");
-                writer.writeBannerDesign(entry.getValue());
-                writer.endObject();
-            }
-            writer.endArray();
+    public void markClean() {
+        dirty = false;
+    }
 
-            writer.endObject();
-        }
+    /**
+     * Gets all camp banner locations
+     */
+    public Map<BlockPos, UUID> getAllCampBanners() {
+        final var copy = new HashMap<BlockPos, UUID>(campBanners.size());
+        campBanners.object2IntEntrySet().forEach(entry -> copy.put(entry.getKey(), players.get(entry.getIntValue())));
+        return copy;
     }
 
     /**
-     * Loads camp banner data from file
+     * Gets all player banner designs
      */
-    public void loadCampBanners(WaypointsPlugin plugin) throws IOException {
-        final var file = new java.io.File(plugin.getDataFolder(), "campbanners.json");
-        if (!file.exists()) {
-            return;
-        }
+    public Map<UUID, BannerDesign> getAllBannerDesigns() {
+        final var copy = new HashMap<UUID, BannerDesign>(playerBannerDesigns.size());
+        playerBannerDesigns.int2ObjectEntrySet()
+                .forEach(entry -> copy.put(players.get(entry.getIntKey()), entry.getValue()));
+        return copy;
+    }
 
+    /**
+     * Replaces all camp banner data with loaded data
+     */
+    public void loadCampBanners(Map<BlockPos, UUID> campBanners, Map<UUID, BannerDesign> bannerDesigns) {
         clear();
 
-        try (final var reader = new GsonReader(file)) {
-            reader.beginObject();
-
-            while (reader.hasNext()) {
-                switch (reader.nextName()) {
-                    case "campBanners" -> {
-                        reader.beginArray();
-                        while (reader.hasNext()) {
-                            reader.beginObject();
-                            Location location = null;
-                            UUID owner = null;
-
-                            while (reader.hasNext()) {
-                                switch (reader.nextName()) {
-                                    case "location" -> location = reader.readLocation();
-                                    case "owner" -> owner = reader.readUUID();
-                                    default -> reader.skipValue();
-                                }
-                            }
-                            reader.endObject();
-
-                            if (location != null && owner != null) {
-                                campBanners.put(location, owner);
-                            }
-                        }
-                        reader.endArray();
-                    }
-                    case "bannerDesigns" -> {
-                        reader.beginArray();
-                        while (reader.hasNext()) {
-                            reader.beginObject();
-                            UUID playerId = null;
-                            BannerDesign design = null;
-
-                            while (reader.hasNext()) {
-                                switch (reader.nextName()) {
-                                    case "playerId" -> playerId = reader.readUUID();
-                                    case "design" -> design = reader.readBannerDesign();
-                                    default -> reader.skipValue();
-                                }
-                            }
-                            reader.endObject();
-
-                            if (playerId != null && design != null) {
-                                playerBannerDesigns.put(playerId, design);
-                            }
-                        }
-                        reader.endArray();
-                    }
-                    default -> reader.skipValue();
-                }
-            }
-
-            reader.endObject();
-        }
+        // Not through the add methods, which would journal what is already saved
+        campBanners.forEach((position, owner) -> this.campBanners.put(position, players.intern(owner)));
+        bannerDesigns.forEach((playerId, design) -> playerBannerDesigns.put(players.intern(playerId), design));
+        dirty = false;
     }
 
     /**
@@ -1,7 +1,5 @@
 package xyz.holocons.mc.waypoints;
 
-import org.bukkit.Location;
-
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 
@@ -12,8 +10,8 @@ import net.kyori.adventure.text.format.NamedTextColor;
 public class CampWaypoint extends Waypoint {
     private final String campName;
 
-    public CampWaypoint(Location location, String name) {
-        super(-1, location, null, true); // Use -1 as ID for camp waypoints
+    public CampWaypoint(BlockPos position, String name) {
+        super(-1, position, null, true); // Use -1 as ID for camp waypoints
         this.campName = name;
     }
 
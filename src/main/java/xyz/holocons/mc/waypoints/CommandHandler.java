@@ -2,7 +2,6 @@ package xyz.holocons.mc.waypoints;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import org.bukkit.Location;
@@ -53,6 +52,9 @@ public class CommandHandler implements TabExecutor {
                         case "WALLET" -> {
                             showWallet(player);
                         }
+                        case "NEAREST" -> {
+                            showNearest(player);
+                        }
                         default -> {
                             return false;
                         }
@@ -163,6 +165,10 @@ public class CommandHandler implements TabExecutor {
                 return false;
             }
             final var subcommand = args[0].toUpperCase();
+            if (plugin.isMaintaining() && !subcommand.equals("RELOAD")) {
+                sender.sendMessage("A restore or compaction is still running");
+                return true;
+            }
             switch (subcommand) {
                 case "BACKUP" -> {
                     plugin.backupData();
@@ -176,6 +182,37 @@ public class CommandHandler implements TabExecutor {
                 case "SAVE" -> {
                     plugin.saveData();
                 }
+                case "COMPACT" -> {
+                    sender.sendMessage("Compacting waypoint ids...");
+                    plugin.compactData().whenCompleteAsync((result, throwable) -> sender.sendMessage(
+                            throwable != null
+                                    ? "Failed to compact waypoint ids, see the server log"
+                                    : "Compacted waypoint ids"),
+                            plugin.getMainThreadExecutor());
+                }
+                case "CONVERT" -> {
+                    final var format = args.length > 1 ? StorageFormat.fromString(args[1]) : null;
+                    if (format == null) {
+                        sender.sendMessage("Usage: waypoints convert <json|binary>");
+                        return true;
+                    }
+                    plugin.convertData(format);
+                }
+                case "RESTORE" -> {
+                    if (args.length > 1) {
+                        final var id = args[1];
+                        sender.sendMessage("Restoring backup " + id + "...");
+                        plugin.restoreData(id).whenCompleteAsync((restored, throwable) -> sender.sendMessage(
+                                throwable != null
+                                        ? "Failed to restore backup " + id + ", see the server log"
+                                        : restored ? "Restored backup " + id : "No such backup"),
+                                plugin.getMainThreadExecutor());
+                        return true;
+                    }
+                    plugin.listBackups().thenAccept(backups -> sender.sendMessage(backups.isEmpty()
+                            ? "No backups"
+                            : "Backups: " + String.join(", ", backups)));
+                }
             }
         }
         return true;
@@ -188,14 +225,17 @@ public class CommandHandler implements TabExecutor {
                 case "WAYPOINTS" -> {
                     yield switch (args.length) {
                         case 1 -> {
-                            yield List.of("create", "removetoken", "setcamp", "sethome", "teleport",
+                            yield List.of("create", "nearest", "removetoken", "setcamp", "sethome", "teleport",
                                     "wallet");
                         }
                         case 2 -> {
                             if (args[0].equalsIgnoreCase("teleport")) {
-                                final var traveler = travelerMap.getOrCreateTraveler(player);
-                                final var waypoints = waypointMap.getNamedWaypoints().filter(traveler::hasWaypoint);
-                                var names = waypoints.map(Waypoint::getName);
+                                final var traveler = travelerMap.getTraveler(player);
+                                var names = traveler.getWaypoints().stream()
+                                        .mapToObj(waypointMap::getWaypoint)
+                                        .filter(waypoint -> waypoint != null && waypoint.isActive()
+                                                && waypoint.hasName())
+                                        .map(Waypoint::getName);
                                 if (traveler.getCamp() != null) {
                                     names = Stream.concat(names, Stream.of("camp"));
                                 }
@@ -239,12 +279,12 @@ public class CommandHandler implements TabExecutor {
     }
 
     private void teleport(Player player, String destination) {
-        final var traveler = travelerMap.getOrCreateTraveler(player);
+        final var traveler = travelerMap.getTraveler(player);
         final TeleportTask.Type type;
         final Location location;
         if (destination.equalsIgnoreCase("camp")) {
             type = TeleportTask.Type.CAMP;
-            location = traveler.getCamp();
+            location = traveler.getCamp() != null ? traveler.getCamp().toLocation() : null;
             if (location == null) {
                 plugin.getLogger()
                         .info(String.format("[TELEPORT] Player %s (%s) attempted camp teleport but has no camp set",
@@ -253,7 +293,7 @@ public class CommandHandler implements TabExecutor {
             }
         } else if (destination.equalsIgnoreCase("home")) {
             type = TeleportTask.Type.HOME;
-            location = traveler.getHome();
+            location = traveler.getHome() != null ? traveler.getHome().toLocation() : null;
             if (location == null) {
                 plugin.getLogger()
                         .info(String.format("[TELEPORT] Player %s (%s) attempted home teleport but has no home set",
@@ -262,8 +302,7 @@ public class CommandHandler implements TabExecutor {
             }
         } else {
             type = TeleportTask.Type.WAYPOINT;
-            Predicate<Waypoint> matchesDestination = waypoint -> waypoint.getName().equalsIgnoreCase(destination);
-            final var waypoint = waypointMap.getNamedWaypoints().filter(matchesDestination).findAny().orElse(null);
+            final var waypoint = waypointMap.getNamedWaypoint(destination);
             location = traveler.hasWaypoint(waypoint) ? waypoint.getLocation() : null;
             if (location == null) {
                 if (waypoint == null) {
@@ -314,11 +353,12 @@ public class CommandHandler implements TabExecutor {
         }
 
         // Create and place the banner
-        if (placeCampBanner(bannerLocation, player)) {
-            traveler.setCamp(bannerLocation);
+        final var camp = BlockPos.of(bannerLocation);
+        if (placeCampBanner(camp, player)) {
+            traveler.setCamp(camp);
 
             // Create a temporary waypoint for hologram display
-            createCampHologram(bannerLocation, player);
+            createCampHologram(camp, player);
 
             player.sendMessage(
                     Component.text("Camp set! A banner has been placed to mark your location.", NamedTextColor.GREEN));
@@ -328,7 +368,7 @@ public class CommandHandler implements TabExecutor {
     }
 
     private void unsetCamp(Player player) {
-        final var traveler = travelerMap.getOrCreateTraveler(player);
+        final var traveler = travelerMap.getTraveler(player);
         final var camp = traveler.getCamp();
 
         if (camp == null) {
@@ -343,7 +383,7 @@ public class CommandHandler implements TabExecutor {
         removeCampHologram(camp, player);
 
         // Clear the camp from traveler data
-        traveler.setCamp(null);
+        travelerMap.getOrCreateTraveler(player).setCamp(null);
         player.sendMessage(Component.text("Your camp has been removed!", NamedTextColor.GREEN));
     }
 
@@ -373,8 +413,8 @@ public class CommandHandler implements TabExecutor {
         return null;
     }
 
-    private boolean placeCampBanner(Location location, Player player) {
-        final var block = location.getBlock();
+    private boolean placeCampBanner(BlockPos position, Player player) {
+        final var block = position.getBlock();
         if (!block.getType().isAir()) {
             return false;
         }
@@ -393,33 +433,33 @@ public class CommandHandler implements TabExecutor {
         bannerDesign.applyToBanner(banner);
 
         // Track this as a camp banner
-        campBannerMap.addCampBanner(location, player.getUniqueId());
+        campBannerMap.addCampBanner(position, player.getUniqueId());
 
         return true;
     }
 
-    private void removeCampBanner(Location location) {
+    private void removeCampBanner(BlockPos position) {
         // Check if this is a tracked camp banner
-        if (campBannerMap.isCampBanner(location)) {
-            final var block = location.getBlock();
+        if (campBannerMap.isCampBanner(position)) {
+            final var block = position.getBlock();
             // Remove any banner type (not just white banners)
             if (block.getType().name().endsWith("_BANNER")) {
                 block.setType(Material.AIR);
-                campBannerMap.removeCampBanner(location);
+                campBannerMap.removeCampBanner(position);
             }
         }
     }
 
-    private void createCampHologram(Location location, Player player) {
+    private void createCampHologram(BlockPos position, Player player) {
         // Create a temporary waypoint object for the hologram system
-        final var tempWaypoint = new CampWaypoint(location, player.getName() + "'s Camp");
+        final var tempWaypoint = new CampWaypoint(position, player.getName() + "'s Camp");
         final var hologramMap = plugin.getHologramMap();
         hologramMap.show(tempWaypoint, player);
     }
 
-    private void removeCampHologram(Location location, Player player) {
+    private void removeCampHologram(BlockPos position, Player player) {
         // Create a temporary waypoint object for the hologram system
-        final var tempWaypoint = new CampWaypoint(location, player.getName() + "'s Camp");
+        final var tempWaypoint = new CampWaypoint(position, player.getName() + "'s Camp");
         final var hologramMap = plugin.getHologramMap();
         hologramMap.hide(tempWaypoint, player);
     }
@@ -444,7 +484,7 @@ public class CommandHandler implements TabExecutor {
     }
 
     private void showWallet(Player player) {
-        final var traveler = travelerMap.getOrCreateTraveler(player);
+        final var traveler = travelerMap.getTraveler(player);
         final var charges = traveler.getCharges();
         final var tokens = traveler.getTokens();
         
@@ -457,4 +497,23 @@ public class CommandHandler implements TabExecutor {
         player.sendMessage(Component.text("• Use '/waypoints removetoken' to extract your tokens back", NamedTextColor.GRAY));
         player.sendMessage(Component.text("• Teleport charges are used for waypoint teleports (1 per teleport)", NamedTextColor.GRAY));
     }
+
+    private void showNearest(Player player) {
+        final var location = player.getLocation();
+        final var waypoint = waypointMap.getNearestWaypoint(location, Waypoint::isActive);
+        if (waypoint == null) {
+            player.sendMessage(Component.text("There are no active waypoints in this world.", NamedTextColor.RED));
+            return;
+        }
+        final var waypointLocation = waypoint.getLocation();
+        final var distance = Math.round(waypointLocation.distance(location));
+        final var registered = travelerMap.getTraveler(player).hasWaypoint(waypoint);
+        player.sendMessage(Component.text("Nearest waypoint: ", NamedTextColor.GOLD)
+                .append(waypoint.getDisplayName())
+                .append(Component.text(String.format(" at %d %d %d, %d blocks away", waypointLocation.getBlockX(),
+                        waypointLocation.getBlockY(), waypointLocation.getBlockZ(), distance), NamedTextColor.GOLD)));
+        if (!registered) {
+            player.sendMessage(Component.text("You have not registered this waypoint yet.", NamedTextColor.GRAY));
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of non-negative ints kept as a sorted array while it is sparse, and
+ * as a bitmap once that takes less memory, like a Roaring container. Its size
+ * follows how many members it has rather than its largest one. Not
+ * thread-safe.
+ */
+final class CompressedIntSet {
+
+    private static final int MIN_BITMAP_SIZE = 64;
+
+    // Sorted members while there is no bitmap
+    private int[] array;
+    private long[] bitmap;
+    private int size;
+
+    CompressedIntSet() {
+        this.array = new int[4];
+    }
+
+    private CompressedIntSet(int[] array, long[] bitmap, int size) {
+        this.array = array;
+        this.bitmap = bitmap;
+        this.size = size;
+    }
+
+    public CompressedIntSet copy() {
+        return new CompressedIntSet(array != null ? array.clone() : null, bitmap != null ? bitmap.clone() : null,
+                size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        if (bitmap != null) {
+            final var word = value >>> 6;
+            return word < bitmap.length && (bitmap[word] & 1L << value) != 0;
+        }
+        return Arrays.binarySearch(array, 0, size, value) >= 0;
+    }
+
+    /**
+     * @return whether the set changed
+     */
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        if (bitmap != null) {
+            final var word = value >>> 6;
+            if (word >= bitmap.length) {
+                bitmap = Arrays.copyOf(bitmap, Math.max(word + 1, bitmap.length * 2));
+            }
+            if ((bitmap[word] & 1L << value) != 0) {
+                return false;
+            }
+            bitmap[word] |= 1L << value;
+            size++;
+            return true;
+        }
+        final var position = Arrays.binarySearch(array, 0, size, value);
+        if (position >= 0) {
+            return false;
+        }
+        final var insertion = -position - 1;
+        if (size == array.length) {
+            array = Arrays.copyOf(array, size * 2);
+        }
+        System.arraycopy(array, insertion, array, insertion + 1, size - insertion);
+        array[insertion] = value;
+        size++;
+        // A member costs 32 bits in the array and the largest member one bit per value below it in a bitmap
+        if (size >= MIN_BITMAP_SIZE && (long) size * Integer.SIZE > array[size - 1] + 1L) {
+            convertToBitmap();
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the set changed
+     */
+    public boolean remove(int value) {
+        if (bitmap != null) {
+            final var word = value >>> 6;
+            if (value < 0 || word >= bitmap.length || (bitmap[word] & 1L << value) == 0) {
+                return false;
+            }
+            bitmap[word] &= ~(1L << value);
+            size--;
+            // Back to an array at half the size it was converted at, so the two do not alternate
+            if ((long) size * Integer.SIZE * 2 < (long) bitmap.length * Long.SIZE) {
+                convertToArray();
+            }
+            return true;
+        }
+        final var position = Arrays.binarySearch(array, 0, size, value);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(array, position + 1, array, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Visits the members in ascending order.
+     */
+    public void forEach(IntConsumer action) {
+        if (bitmap != null) {
+            for (var word = 0; word < bitmap.length; word++) {
+                var bits = bitmap[word];
+                while (bits != 0) {
+                    action.accept(word << 6 | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        } else {
+            for (var i = 0; i < size; i++) {
+                action.accept(array[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the members in ascending order
+     */
+    public int[] toArray() {
+        if (bitmap == null) {
+            return Arrays.copyOf(array, size);
+        }
+        final var values = new int[size];
+        final var position = new int[1];
+        forEach(value -> values[position[0]++] = value);
+        return values;
+    }
+
+    boolean isBitmap() {
+        return bitmap != null;
+    }
+
+    private void convertToBitmap() {
+        final var converted = new long[(array[size - 1] >>> 6) + 1];
+        for (var i = 0; i < size; i++) {
+            converted[array[i] >>> 6] |= 1L << array[i];
+        }
+        bitmap = converted;
+        array = null;
+    }
+
+    private void convertToArray() {
+        final var values = new int[Math.max(4, size)];
+        final var position = new int[1];
+        forEach(value -> values[position[0]++] = value);
+        bitmap = null;
+        array = values;
+    }
+}
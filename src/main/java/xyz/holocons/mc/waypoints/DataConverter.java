@@ -0,0 +1,131 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Rewrites the data folder from one {@link StorageFormat}, {@link TravelerStore}
+ * or {@link Storage} to another. Must run on the plugin's I/O executor, or
+ * before it has any work queued. Source files are only deleted once every file
+ * has been written in the target format, so an interrupted conversion can
+ * simply be run again.
+ */
+public final class DataConverter {
+
+    private DataConverter() {
+    }
+
+    public static boolean hasData(File dataFolder, StorageFormat format) throws IOException {
+        if (format.getFile(dataFolder, WaypointMap.BASENAME).exists()
+                || format.getFile(dataFolder, CampBannerMap.BASENAME).exists()) {
+            return true;
+        }
+        return !ShardTravelerStore.listFiles(new File(dataFolder, TravelerMap.DIRECTORY), format).isEmpty();
+    }
+
+    /**
+     * @return the number of traveler files converted
+     */
+    public static int convert(File dataFolder, StorageFormat source, StorageFormat target) throws IOException {
+        final var converted = new ArrayList<File>();
+
+        final var waypointFile = source.getFile(dataFolder, WaypointMap.BASENAME);
+        if (waypointFile.exists()) {
+            final var waypointMap = source.readWaypointMap(waypointFile);
+            final var waypoints = waypointMap != null ? waypointMap : new HashMap<Integer, Waypoint>();
+            FileStorage.writeAtomically(target.getFile(dataFolder, WaypointMap.BASENAME),
+                    file -> target.writeWaypointMap(file, waypoints));
+            converted.add(waypointFile);
+        }
+
+        final var campBannerFile = source.getFile(dataFolder, CampBannerMap.BASENAME);
+        if (campBannerFile.exists()) {
+            final var campBanners = new HashMap<BlockPos, UUID>();
+            final var bannerDesigns = new HashMap<UUID, CampBannerMap.BannerDesign>();
+            source.readCampBannerData(campBannerFile, campBanners, bannerDesigns);
+            FileStorage.writeAtomically(target.getFile(dataFolder, CampBannerMap.BASENAME),
+                    file -> target.writeCampBannerData(file, campBanners, bannerDesigns));
+            converted.add(campBannerFile);
+        }
+
+        final var directory = new File(dataFolder, TravelerMap.DIRECTORY);
+        var travelers = 0;
+        for (final var travelerFile : ShardTravelerStore.listFiles(directory, source)) {
+            final var uniqueId = ShardTravelerStore.getUniqueId(travelerFile, source);
+            if (uniqueId == null) {
+                continue;
+            }
+            final var traveler = source.readTraveler(travelerFile);
+            if (traveler != null) {
+                FileStorage.writeAtomically(ShardTravelerStore.getFile(directory, uniqueId, target),
+                        file -> target.writeTraveler(file, traveler));
+                travelers++;
+            }
+            converted.add(travelerFile);
+        }
+
+        for (final var file : converted) {
+            Files.deleteIfExists(file.toPath());
+        }
+        return travelers;
+    }
+
+    /**
+     * Copies everything from one {@link Storage} backend to another.
+     *
+     * @return the number of travelers copied
+     */
+    public static int copy(Storage source, Storage target) throws IOException {
+        final var waypoints = source.loadWaypoints();
+        final var waypointIds = new HashSet<>(waypoints.keySet());
+        final var campBanners = new HashMap<BlockPos, UUID>();
+        final var bannerDesigns = new HashMap<UUID, CampBannerMap.BannerDesign>();
+        source.loadCampBannerData(campBanners, bannerDesigns);
+        target.save(new DataSnapshot(waypoints, waypointIds, Set.of(), null, campBanners, bannerDesigns));
+        return copyTravelers(source.getTravelerStore(), target.getTravelerStore());
+    }
+
+    /**
+     * @return the number of travelers copied
+     */
+    public static int copyTravelers(TravelerStore source, TravelerStore target) throws IOException {
+        final var count = new int[1];
+        source.forEach((uniqueId, traveler) -> {
+            target.write(uniqueId, traveler);
+            count[0]++;
+        });
+        target.flush();
+        return count[0];
+    }
+
+    /**
+     * Moves the travelers of the original single-file format into the store
+     * and keeps the old file as {@code traveler.json.migrated}.
+     *
+     * @return the number of travelers migrated
+     */
+    public static int migrateLegacyTravelers(File legacyFile, TravelerStore target) throws IOException {
+        final HashMap<UUID, Traveler> travelerMap;
+        try (final var reader = new GsonReader(legacyFile)) {
+            travelerMap = reader.readTravelerMap();
+        }
+
+        if (travelerMap != null) {
+            for (final var entry : travelerMap.entrySet()) {
+                target.write(entry.getKey(), entry.getValue());
+            }
+            target.flush();
+        }
+
+        final var migratedFile = new File(legacyFile.getParentFile(), legacyFile.getName() + ".migrated");
+        Files.move(legacyFile.toPath(), migratedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return travelerMap != null ? travelerMap.size() : 0;
+    }
+}
@@ -0,0 +1,128 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A detached copy of everything the plugin persists. Capturing one is cheap
+ * enough for the server thread; {@link Storage#save(DataSnapshot)} is not, and
+ * is meant to run on the plugin's I/O executor. Sections that had no unsaved
+ * changes are left {@code null} and are not written. For a backup,
+ * {@code changedTravelers} are the players whose stored travelers may have
+ * changed since the last backup, or {@code null} if that is not known.
+ */
+public record DataSnapshot(HashMap<Integer, Waypoint> waypoints, Set<Integer> changedWaypoints,
+        Set<Integer> removedWaypoints, HashMap<UUID, Traveler> travelers, Map<BlockPos, UUID> campBanners,
+        Map<UUID, CampBannerMap.BannerDesign> bannerDesigns, Set<UUID> changedTravelers) {
+
+    public DataSnapshot(HashMap<Integer, Waypoint> waypoints, Set<Integer> changedWaypoints,
+            Set<Integer> removedWaypoints, HashMap<UUID, Traveler> travelers, Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) {
+        this(waypoints, changedWaypoints, removedWaypoints, travelers, campBanners, bannerDesigns, null);
+    }
+
+    public static DataSnapshot capture(WaypointsPlugin plugin) {
+        final var waypointMap = plugin.getWaypointMap();
+        final var travelerMap = plugin.getTravelerMap();
+        final var campBannerMap = plugin.getCampBannerMap();
+        HashMap<Integer, Waypoint> waypoints = null;
+        Set<Integer> changedWaypoints = null;
+        Set<Integer> removedWaypoints = null;
+        if (waypointMap.isDirty()) {
+            changedWaypoints = waypointMap.getChangedIds();
+            removedWaypoints = waypointMap.getRemovedIds();
+            waypoints = waypointMap.snapshotWaypoints();
+        }
+        final var travelers = travelerMap.isDirty() ? travelerMap.snapshotTravelers() : null;
+        Map<BlockPos, UUID> campBanners = null;
+        Map<UUID, CampBannerMap.BannerDesign> bannerDesigns = null;
+        if (campBannerMap.isDirty()) {
+            campBanners = campBannerMap.getAllCampBanners();
+            bannerDesigns = campBannerMap.getAllBannerDesigns();
+            campBannerMap.markClean();
+        }
+        return new DataSnapshot(waypoints, changedWaypoints, removedWaypoints, travelers, campBanners,
+                bannerDesigns);
+    }
+
+    /**
+     * Captures everything without marking it as saved, for a backup. Only
+     * loaded travelers are included, along with which of the others changed
+     * since the last backup.
+     */
+    public static DataSnapshot captureAll(WaypointsPlugin plugin) {
+        final var travelerMap = plugin.getTravelerMap();
+        final var campBannerMap = plugin.getCampBannerMap();
+        return new DataSnapshot(plugin.getWaypointMap().copyWaypoints(), Set.of(), Set.of(),
+                travelerMap.copyTravelers(), campBannerMap.getAllCampBanners(),
+                campBannerMap.getAllBannerDesigns(), travelerMap.takeBackupChanges());
+    }
+
+    /**
+     * Serializes the snapshot into a backup, laid out as {@link FileStorage}
+     * files in {@code format} with one file per traveler. Travelers that are
+     * not loaded are read from {@code travelerStore}, so this must run on the
+     * I/O executor. If the previous backup is in the same format and the
+     * changed travelers are known, only those are read, and the others are
+     * carried over from it.
+     */
+    public void backup(BackupWriter writer, File dataFolder, StorageFormat format, TravelerStore travelerStore)
+            throws IOException {
+        final var waypointFile = format.getFile(dataFolder, WaypointMap.BASENAME);
+        final var incremental = changedTravelers != null && writer.hasPrevious(waypointFile);
+        writer.addEntry(waypointFile, outputStream -> format.writeWaypointMap(outputStream, waypoints));
+        writer.addEntry(format.getFile(dataFolder, CampBannerMap.BASENAME),
+                outputStream -> format.writeCampBannerData(outputStream, campBanners, bannerDesigns));
+        final var directory = new File(dataFolder, TravelerMap.DIRECTORY);
+        if (incremental) {
+            writer.keepAll(directory);
+            for (final var uniqueId : changedTravelers) {
+                if (travelers.containsKey(uniqueId)) {
+                    continue;
+                }
+                final var file = ShardTravelerStore.getFile(directory, uniqueId, format);
+                final var traveler = travelerStore.read(uniqueId);
+                if (traveler != null) {
+                    writer.addEntry(file, outputStream -> format.writeTraveler(outputStream, traveler));
+                } else {
+                    writer.remove(file);
+                }
+            }
+        } else {
+            travelerStore.forEach((uniqueId, traveler) -> {
+                if (!travelers.containsKey(uniqueId)) {
+                    writer.addEntry(ShardTravelerStore.getFile(directory, uniqueId, format),
+                            outputStream -> format.writeTraveler(outputStream, traveler));
+                }
+            });
+        }
+        for (final var entry : travelers.entrySet()) {
+            writer.addEntry(ShardTravelerStore.getFile(directory, entry.getKey(), format),
+                    outputStream -> format.writeTraveler(outputStream, entry.getValue()));
+        }
+    }
+
+    public boolean isEmpty() {
+        return waypoints == null && travelers == null && campBanners == null;
+    }
+
+    /**
+     * Flags every captured section as unsaved again, so a failed write is
+     * retried by the next save. Must be called on the server thread.
+     */
+    public void restoreDirty(WaypointsPlugin plugin) {
+        if (waypoints != null) {
+            plugin.getWaypointMap().markDirty(changedWaypoints, removedWaypoints);
+        }
+        if (travelers != null) {
+            plugin.getTravelerMap().restoreDirty(travelers);
+        }
+        if (campBanners != null) {
+            plugin.getCampBannerMap().markDirty();
+        }
+    }
+}
@@ -3,14 +3,15 @@ package xyz.holocons.mc.waypoints;
 import java.nio.ByteBuffer;
 import java.util.UUID;
 
-import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.persistence.PersistentDataAdapterContext;
 import org.bukkit.persistence.PersistentDataType;
 
 public final class DataType {
 
-    public static final PersistentDataType<byte[], Location> LOCATION = new PersistentDataType<byte[], Location>() {
+    /**
+     * Laid out as x, y and z as doubles followed by the world UUID.
+     */
+    public static final PersistentDataType<byte[], BlockPos> BLOCK_POS = new PersistentDataType<byte[], BlockPos>() {
 
         private static final int BYTES = Double.BYTES * 3 + Long.BYTES * 2;
 
@@ -20,16 +21,16 @@ public final class DataType {
         }
 
         @Override
-        public Class<Location> getComplexType() {
-            return Location.class;
+        public Class<BlockPos> getComplexType() {
+            return BlockPos.class;
         }
 
         @Override
-        public byte[] toPrimitive(Location complex, PersistentDataAdapterContext context) {
-            final var x = complex.getX();
-            final var y = complex.getY();
-            final var z = complex.getZ();
-            final var world = complex.isWorldLoaded() ? complex.getWorld().getUID() : new UUID(0, 0);
+        public byte[] toPrimitive(BlockPos complex, PersistentDataAdapterContext context) {
+            final double x = complex.getX();
+            final double y = complex.getY();
+            final double z = complex.getZ();
+            final var world = complex.getWorldId();
 
             final var buffer = ByteBuffer.allocate(BYTES);
             buffer.putDouble(x);
@@ -41,7 +42,7 @@ public final class DataType {
         }
 
         @Override
-        public Location fromPrimitive(byte[] primitive, PersistentDataAdapterContext context) {
+        public BlockPos fromPrimitive(byte[] primitive, PersistentDataAdapterContext context) {
             final var buffer = ByteBuffer.wrap(primitive);
             final var x = buffer.getDouble();
             final var y = buffer.getDouble();
@@ -49,8 +50,7 @@ public final class DataType {
             final var firstLong = buffer.getLong();
             final var secondLong = buffer.getLong();
 
-            final var world = Bukkit.getWorld(new UUID(firstLong, secondLong));
-            return new Location(world, x, y, z);
+            return BlockPos.of(new UUID(firstLong, secondLong), x, y, z);
         }
     };
 
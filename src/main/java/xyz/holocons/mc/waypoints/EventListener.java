@@ -1,8 +1,15 @@
 package xyz.holocons.mc.waypoints;
 
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.EntityEffect;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Tag;
 import org.bukkit.block.Block;
@@ -19,9 +26,12 @@ import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.ProjectileLaunchEvent;
 import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.server.ServerLoadEvent;
 import org.bukkit.inventory.EquipmentSlot;
 
@@ -61,6 +71,7 @@ public final class EventListener implements Listener {
         if (task == null) {
             if (waypointMap.isWaypoint(blockPlaced)) {
                 final var waypoint = waypointMap.getNearbyWaypoint(blockPlaced);
+                waypoint.refreshBanner();
                 hologramMap.updateTrackedPlayers(waypoint, player);
             }
             return;
@@ -79,6 +90,7 @@ public final class EventListener implements Listener {
                     return;
                 }
 
+                waypoint.refreshBanner();
                 hologramMap.showTrackedPlayers(waypoint, player);
             }
             default -> {
@@ -92,12 +104,12 @@ public final class EventListener implements Listener {
     public void onBlockBreak(BlockBreakEvent event) {
         final var block = event.getBlock();
         final var player = event.getPlayer();
-        final var location = block.getLocation();
 
         // Check if this block is a camp banner (higher priority protection)
-        if (plugin.getCampBannerMap().isCampBanner(location)) {
+        final var position = BlockPos.of(block);
+        if (plugin.getCampBannerMap().isCampBanner(position)) {
             event.setCancelled(true);
-            final var owner = plugin.getCampBannerMap().getCampBannerOwner(location);
+            final var owner = plugin.getCampBannerMap().getCampBannerOwner(position);
             final var ownerName = Bukkit.getOfflinePlayer(owner).getName();
             player.sendMessage(
                     Component.text("This camp banner belongs to " + ownerName + " and cannot be broken!",
@@ -126,10 +138,8 @@ public final class EventListener implements Listener {
         travelerMap.removeWaypoint(waypoint);
 
         // Refund tokens to contributors
+        travelerMap.refundTokens(waypoint.getContributors());
         for (final var uniqueId : waypoint.getContributors()) {
-            final var traveler = travelerMap.getOrCreateTraveler(uniqueId);
-            traveler.setTokens(traveler.getTokens() + 1);
-            
             // Send feedback to online contributors
             final var contributorPlayer = plugin.getServer().getPlayer(uniqueId);
             if (contributorPlayer != null) {
@@ -168,31 +178,85 @@ public final class EventListener implements Listener {
         final var player = event.getPlayer();
 
         // Handle regular waypoint holograms
-        final var waypoint = waypointMap.getWaypoint(chunk.getChunkKey());
-        if (waypoint != null && waypoint.getLocation().getWorld() == event.getWorld()) {
-            hologramMap.show(waypoint, player);
+        final var waypoint = waypointMap.getWaypoint(event.getWorld(), chunk.getChunkKey());
+        final var location = player.getLocation();
+        if (waypoint != null && isHologramVisible(waypoint, location)) {
+            hologramMap.show(waypoint, List.of(player), isHologramDetailed(waypoint, location));
         }
 
         // Handle camp banner holograms - check all tracked camp banners in this chunk
         final var campBannerMap = plugin.getCampBannerMap();
         for (var entry : campBannerMap.getAllCampBanners().entrySet()) {
-            final var location = entry.getKey();
+            final var position = entry.getKey();
             final var ownerId = entry.getValue();
 
             // Check if this camp banner is in the loaded chunk
-            if (location.getChunk().equals(chunk)) {
+            if (position.getChunkKey() == chunk.getChunkKey() && position.isIn(chunk.getWorld())) {
                 final var ownerName = Bukkit.getOfflinePlayer(ownerId).getName();
-                final var tempWaypoint = new CampWaypoint(location, ownerName + "'s Camp");
+                final var tempWaypoint = new CampWaypoint(position, ownerName + "'s Camp");
                 hologramMap.show(tempWaypoint, player);
             }
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        final var radius = plugin.getHologramRadius();
+        if (radius <= 0) {
+            return;
+        }
+        final var from = event.getFrom();
+        final var to = event.getTo();
+        if (from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4) {
+            return;
+        }
+        showHologramsAround(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        // The chunks sent are still those of the old world. Its holograms are hidden as its chunks are unloaded
+        // for the player, and the new world's are shown as its chunks are sent, the same as on join.
+        if (event.getFrom().getWorld() != event.getTo().getWorld()) {
+            return;
+        }
+        showHologramsAround(event.getPlayer(), event.getTo());
+    }
+
+    /**
+     * Shows the player only the waypoint holograms within the visibility
+     * radius of {@code location}, if there is one. Only the waypoints near it
+     * are looked at, so this does not grow with the view distance.
+     */
+    private void showHologramsAround(Player player, Location location) {
+        final var radius = plugin.getHologramRadius();
+        if (radius <= 0) {
+            return;
+        }
+        final var visible = waypointMap.getWaypointsWithin(location, radius,
+                waypoint -> player.isChunkSent(waypoint.getChunkKey()));
+        hologramMap.showOnly(player, visible, waypoint -> isHologramDetailed(waypoint, location));
+    }
+
+    private boolean isHologramVisible(Waypoint waypoint, Location location) {
+        final var radius = plugin.getHologramRadius();
+        return radius <= 0 || waypoint.getPosition().distanceSquared(location) <= (double) radius * radius;
+    }
+
+    /**
+     * Only applies with a visibility radius, since moving updates it.
+     */
+    private boolean isHologramDetailed(Waypoint waypoint, Location location) {
+        final var detailRadius = plugin.getHologramDetailRadius();
+        return plugin.getHologramRadius() <= 0 || detailRadius <= 0
+                || waypoint.getPosition().distanceSquared(location) <= (double) detailRadius * detailRadius;
+    }
+
     @EventHandler
     public void onPlayerChunkUnload(PlayerChunkUnloadEvent event) {
-        final var waypoint = waypointMap.getWaypoint(event.getChunk().getChunkKey());
+        final var waypoint = waypointMap.getWaypoint(event.getWorld(), event.getChunk().getChunkKey());
 
-        if (waypoint == null || waypoint.getLocation().getWorld() != event.getWorld()) {
+        if (waypoint == null) {
             return;
         }
 
@@ -304,13 +368,13 @@ public final class EventListener implements Listener {
             switch (task.getType()) {
                 case SETCAMP -> {
                     if (plugin.getCampWorlds().contains(destinationBlock.getWorld().getName())) {
-                        travelerMap.getOrCreateTraveler(player).setCamp(destinationBlock.getLocation());
+                        travelerMap.getOrCreateTraveler(player).setCamp(BlockPos.of(destinationBlock));
                         player.sendMessage(Component.text("You assigned your camp!", NamedTextColor.GREEN));
                     }
                 }
                 case SETHOME -> {
                     if (plugin.getHomeWorlds().contains(destinationBlock.getWorld().getName())) {
-                        travelerMap.getOrCreateTraveler(player).setHome(destinationBlock.getLocation());
+                        travelerMap.getOrCreateTraveler(player).setHome(BlockPos.of(destinationBlock));
                         player.sendMessage(Component.text("You assigned your home!", NamedTextColor.GREEN));
                     }
                 }
@@ -329,9 +393,8 @@ public final class EventListener implements Listener {
             if (!waypoint.isActive()) {
                 event.setCancelled(true);
                 
-                final var traveler = travelerMap.getOrCreateTraveler(player);
+                final var traveler = travelerMap.getTraveler(player);
                 final var tokenRequirement = plugin.getWaypointActivateCost();
-                final var contributors = waypoint.getContributors();
                 
                 // Check if player has tokens in wallet
                 if (traveler.getTokens() <= 0) {
@@ -340,27 +403,27 @@ public final class EventListener implements Listener {
                 }
                 
                 // Deduct token from wallet
-                traveler.setTokens(traveler.getTokens() - 1);
+                travelerMap.getOrCreateTraveler(player).setTokens(traveler.getTokens() - 1);
                 
                 // Add contribution to waypoint
-                contributors.add(player.getUniqueId());
+                waypoint.addContributor(player.getUniqueId());
                 player.sendMessage(Component.text("You added a token! (" + traveler.getTokens() + " tokens remaining in wallet)", NamedTextColor.BLUE));
                 
                 // Check if waypoint should activate
-                if (contributors.size() >= tokenRequirement) {
+                if (waypoint.getTokenCount() >= tokenRequirement) {
                     waypoint.activate();
                     hologramMap.updateTrackedPlayers(waypoint, player);
                     player.sendMessage(Component.text("Waypoint activated!", NamedTextColor.GREEN));
                 }
                 
-                sendActionBar(player, contributors.size(), tokenRequirement);
+                sendActionBar(player, waypoint.getTokenCount(), tokenRequirement);
                 return;
             }
 
             if (waypoint.isActive()) {
-                final var traveler = travelerMap.getOrCreateTraveler(player);
+                final var traveler = travelerMap.getTraveler(player);
                 if (!traveler.hasWaypoint(waypoint)) {
-                    traveler.registerWaypoint(waypoint);
+                    travelerMap.registerWaypoint(player.getUniqueId(), waypoint);
                     player.sendMessage(Component.text("You registered a waypoint!", NamedTextColor.GOLD));
                 }
             } else {
@@ -374,7 +437,7 @@ public final class EventListener implements Listener {
                     contributorNamesBuilder.append(Component.text("Contributors: " + String.join(", ", contributors)));
                 }
                 player.sendMessage(contributorNamesBuilder.build());
-                sendActionBar(player, contributors.size(), tokenRequirement);
+                sendActionBar(player, waypoint.getTokenCount(), tokenRequirement);
             }
             return;
         }
@@ -389,19 +452,16 @@ public final class EventListener implements Listener {
                     return;
                 }
                 waypointMap.removeWaypoint(waypoint);
-                for (final var uniqueId : waypoint.getContributors()) {
-                    final var traveler = travelerMap.getOrCreateTraveler(uniqueId);
-                    traveler.setTokens(traveler.getTokens() + 1);
-                }
+                // Never active, so no traveler can have registered it
+                waypointMap.releaseId(waypoint.getId());
+                travelerMap.refundTokens(waypoint.getContributors());
                 hologramMap.remove(waypoint);
             }
             case DELETE -> {
                 waypointMap.removeWaypoint(waypoint);
                 travelerMap.removeWaypoint(waypoint);
+                travelerMap.refundTokens(waypoint.getContributors());
                 for (final var uniqueId : waypoint.getContributors()) {
-                    final var traveler = travelerMap.getOrCreateTraveler(uniqueId);
-                    traveler.setTokens(traveler.getTokens() + 1);
-                    
                     // Send feedback to online contributors
                     final var contributorPlayer = plugin.getServer().getPlayer(uniqueId);
                     if (contributorPlayer != null) {
@@ -416,15 +476,13 @@ public final class EventListener implements Listener {
                     return;
                 }
                 final var uniqueId = player.getUniqueId();
-                final var contributors = waypoint.getContributors();
-                if (contributors.contains(uniqueId)) {
+                if (waypoint.removeContributor(uniqueId)) {
                     player.sendMessage(Component.text("A waypoint token was returned to your wallet!", NamedTextColor.BLUE));
                     final var traveler = travelerMap.getOrCreateTraveler(player);
                     traveler.setTokens(traveler.getTokens() + 1);
-                    contributors.remove(uniqueId);
                 }
                 final var tokenRequirement = plugin.getWaypointActivateCost();
-                sendActionBar(player, contributors.size(), tokenRequirement);
+                sendActionBar(player, waypoint.getTokenCount(), tokenRequirement);
             }
             case REPOSITION -> {
                 // This case is handled earlier in the method for both pickup and placement
@@ -624,6 +682,11 @@ public final class EventListener implements Listener {
             newState.update();
         }
 
+        final var waypoint = waypointMap.getNearbyWaypoint(block);
+        if (waypoint != null) {
+            waypoint.refreshBanner();
+        }
+
         // Give player the original banner
         final var originalBanner = new org.bukkit.inventory.ItemStack(originalMaterial);
         if (!originalPatterns.isEmpty()
@@ -711,6 +774,7 @@ public final class EventListener implements Listener {
 
         // Remove the newly created waypoint since we want to reuse the old one's data
         waypointMap.removeWaypoint(newWaypoint);
+        waypointMap.releaseId(newWaypoint.getId());
 
         // Get stored banner data from the task
         final var bannerMaterial = task.getRepositionBannerMaterial();
@@ -718,8 +782,8 @@ public final class EventListener implements Listener {
         final var bannerName = task.getRepositionBannerName();
 
         // Create a new waypoint with the old waypoint's data at the new location
-        final var repositionedWaypoint = new Waypoint(waypoint.getId(), placementBlock.getLocation(),
-                waypoint.getContributors(), waypoint.isActive());
+        final var repositionedWaypoint = new Waypoint(waypoint.getId(), BlockPos.of(placementBlock),
+                waypoint.getContributors(), waypoint.isActive(), waypoint.getBanner());
 
         // Add the repositioned waypoint to the map
         waypointMap.addWaypoint(repositionedWaypoint);
@@ -744,6 +808,7 @@ public final class EventListener implements Listener {
             }
             banner.update();
         }
+        repositionedWaypoint.refreshBanner();
 
         // Show hologram again if active
         if (repositionedWaypoint.isActive()) {
@@ -763,21 +828,42 @@ public final class EventListener implements Listener {
         player.sendActionBar(Component.text(String.format("%d / %d", contributorsSize, tokenRequirement)));
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        // Runs off the main thread, so waiting here keeps the join itself from touching the disk. The wait
+        // is bounded, since the read may be queued behind a backup; the join then picks it up once it is done.
+        try {
+            travelerMap.prefetch(event.getUniqueId()).get(plugin.getLoginTimeout(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            plugin.getLogger().warning("Timed out reading the data of " + event.getName() + ", letting them join");
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read the data of " + event.getName(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         final var player = event.getPlayer();
+        // Takes the prefetched traveler, or stops it being evicted if it stayed loaded
+        travelerMap.getTraveler(player);
 
         // Show holograms for all camp banners in loaded chunks
         Bukkit.getScheduler().runTaskLater(plugin, () -> {
             final var campBannerMap = plugin.getCampBannerMap();
             for (var entry : campBannerMap.getAllCampBanners().entrySet()) {
-                final var location = entry.getKey();
+                final var position = entry.getKey();
                 final var ownerId = entry.getValue();
+                final var world = position.getWorld();
 
                 // Check if the chunk is loaded
-                if (location.getChunk().isLoaded()) {
+                if (world != null && world.isChunkLoaded(position.getX() >> 4, position.getZ() >> 4)) {
                     final var ownerName = Bukkit.getOfflinePlayer(ownerId).getName();
-                    final var tempWaypoint = new CampWaypoint(location, ownerName + "'s Camp");
+                    final var tempWaypoint = new CampWaypoint(position, ownerName + "'s Camp");
                     hologramMap.show(tempWaypoint, player);
                 }
             }
@@ -788,6 +874,7 @@ public final class EventListener implements Listener {
     public void onPlayerQuit(PlayerQuitEvent event) {
         final var player = event.getPlayer();
         travelerMap.unregisterTask(player);
+        travelerMap.scheduleEviction(player.getUniqueId());
         hologramMap.remove(player);
     }
 
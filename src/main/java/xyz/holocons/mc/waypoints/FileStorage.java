@@ -0,0 +1,197 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Keeps waypoints and camp banners in one file each, in a
+ * {@link StorageFormat}, and travelers in either per-player files or a
+ * {@link MappedTravelerStore}.
+ */
+public class FileStorage implements Storage {
+
+    @FunctionalInterface
+    interface WriteAction {
+        void write(File file) throws IOException;
+    }
+
+    private final File dataFolder;
+    private final File travelerDirectory;
+    private final boolean mapped;
+    private final Logger logger;
+    private StorageFormat format;
+    private TravelerStore travelerStore;
+
+    private FileStorage(File dataFolder, StorageFormat format, boolean mapped, Logger logger,
+            TravelerStore travelerStore) {
+        this.dataFolder = dataFolder;
+        this.travelerDirectory = new File(dataFolder, TravelerMap.DIRECTORY);
+        this.mapped = mapped;
+        this.logger = logger;
+        this.format = format;
+        this.travelerStore = travelerStore;
+    }
+
+    /**
+     * Opens the data folder, first converting any data left in the other
+     * format or traveler store, e.g. after the config was changed by hand.
+     */
+    public static FileStorage open(File dataFolder, StorageFormat format, boolean mapped, Logger logger)
+            throws IOException {
+        final var source = format.other();
+        if (!DataConverter.hasData(dataFolder, format) && DataConverter.hasData(dataFolder, source)) {
+            final var travelers = DataConverter.convert(dataFolder, source, format);
+            logger.info(String.format("Converted data and %d travelers from %s to %s", travelers, source, format));
+        }
+
+        final var directory = new File(dataFolder, TravelerMap.DIRECTORY);
+        final var shardStore = new ShardTravelerStore(directory, format, logger);
+        final var mappedFile = new File(directory, MappedTravelerStore.FILENAME);
+        final TravelerStore travelerStore;
+        if (mapped) {
+            final var created = !mappedFile.exists();
+            final var mappedStore = new MappedTravelerStore(mappedFile);
+            if (created) {
+                final var travelers = DataConverter.copyTravelers(shardStore, mappedStore);
+                if (travelers > 0) {
+                    shardStore.delete();
+                    logger.info(String.format("Moved %d travelers into %s", travelers, mappedFile.getName()));
+                }
+            }
+            travelerStore = mappedStore;
+        } else {
+            if (mappedFile.exists()) {
+                final var mappedStore = new MappedTravelerStore(mappedFile);
+                final var travelers = DataConverter.copyTravelers(mappedStore, shardStore);
+                mappedStore.close();
+                Files.delete(mappedFile.toPath());
+                logger.info(String.format("Moved %d travelers out of %s", travelers, mappedFile.getName()));
+            }
+            travelerStore = shardStore;
+        }
+        return new FileStorage(dataFolder, format, mapped, logger, travelerStore);
+    }
+
+    public StorageFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Rewrites all files in {@code target}.
+     *
+     * @return the number of traveler files converted
+     */
+    public int convert(StorageFormat target) throws IOException {
+        final var travelers = DataConverter.convert(dataFolder, format, target);
+        format = target;
+        if (!mapped) {
+            travelerStore = new ShardTravelerStore(travelerDirectory, target, logger);
+        }
+        return travelers;
+    }
+
+    @Override
+    public HashMap<Integer, Waypoint> loadWaypoints() throws IOException {
+        final var file = format.getFile(dataFolder, WaypointMap.BASENAME);
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+        final var waypoints = format.readWaypointMap(file);
+        return waypoints != null ? waypoints : new HashMap<>();
+    }
+
+    @Override
+    public void loadCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        final var file = format.getFile(dataFolder, CampBannerMap.BASENAME);
+        if (file.exists()) {
+            format.readCampBannerData(file, campBanners, bannerDesigns);
+        }
+    }
+
+    @Override
+    public TravelerStore getTravelerStore() {
+        return travelerStore;
+    }
+
+    @Override
+    public void save(DataSnapshot snapshot) throws IOException {
+        final var waypoints = snapshot.waypoints();
+        final var travelers = snapshot.travelers();
+        final var campBanners = snapshot.campBanners();
+        final var bannerDesigns = snapshot.bannerDesigns();
+        if (waypoints != null) {
+            writeAtomically(format.getFile(dataFolder, WaypointMap.BASENAME),
+                    file -> format.writeWaypointMap(file, waypoints));
+        }
+        if (travelers != null) {
+            for (final var entry : travelers.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    travelerStore.delete(entry.getKey());
+                } else {
+                    travelerStore.write(entry.getKey(), entry.getValue());
+                }
+            }
+            travelerStore.flush();
+        }
+        if (campBanners != null) {
+            writeAtomically(format.getFile(dataFolder, CampBannerMap.BASENAME),
+                    file -> format.writeCampBannerData(file, campBanners, bannerDesigns));
+        }
+    }
+
+    @Override
+    public boolean hasData() throws IOException {
+        return DataConverter.hasData(dataFolder, format)
+                || new File(travelerDirectory, MappedTravelerStore.FILENAME).exists();
+    }
+
+    @Override
+    public List<File> getFiles() {
+        return List.of(format.getFile(dataFolder, WaypointMap.BASENAME),
+                format.getFile(dataFolder, CampBannerMap.BASENAME), travelerDirectory);
+    }
+
+    @Override
+    public void delete() throws IOException {
+        travelerStore.close();
+        Files.deleteIfExists(format.getFile(dataFolder, WaypointMap.BASENAME).toPath());
+        Files.deleteIfExists(format.getFile(dataFolder, CampBannerMap.BASENAME).toPath());
+        new ShardTravelerStore(travelerDirectory, format, logger).delete();
+        Files.deleteIfExists(new File(travelerDirectory, MappedTravelerStore.FILENAME).toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        travelerStore.close();
+    }
+
+    /**
+     * Writes to a temporary file first, syncs it and renames it over
+     * {@code file}, so a crash never leaves a truncated file behind.
+     */
+    static void writeAtomically(File file, WriteAction action) throws IOException {
+        file.getParentFile().mkdirs();
+        final var tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        action.write(tempFile);
+        try (final var channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -10,33 +10,33 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.Map;
 import java.util.UUID;
 
-import org.bukkit.Bukkit;
-import org.bukkit.Location;
-
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
 public class GsonReader extends JsonReader {
 
     public GsonReader(final File file) throws FileNotFoundException {
         super(new BufferedReader(new FileReader(file)));
     }
 
-    public HashMap<Long, Waypoint> readWaypointMap() throws IOException {
+    public HashMap<Integer, Waypoint> readWaypointMap() throws IOException {
         if (peek() == JsonToken.NULL) {
             nextNull();
             return null;
         }
 
-        HashMap<Long, Waypoint> map = new HashMap<>();
+        HashMap<Integer, Waypoint> map = new HashMap<>();
 
         beginArray();
         while (hasNext()) {
             var waypoint = readWaypoint();
-            var chunkKey = waypoint.getChunkKey();
-            map.put(chunkKey, waypoint);
+            map.put(waypoint.getId(), waypoint);
         }
         endArray();
 
@@ -68,6 +68,63 @@ public class GsonReader extends JsonReader {
         return map.isEmpty() ? null : map;
     }
 
+    public void readCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        beginObject();
+
+        while (hasNext()) {
+            switch (nextName()) {
+                case "campBanners" -> {
+                    beginArray();
+                    while (hasNext()) {
+                        beginObject();
+                        BlockPos location = null;
+                        UUID owner = null;
+
+                        while (hasNext()) {
+                            switch (nextName()) {
+                                case "location" -> location = readLocation();
+                                case "owner" -> owner = readUUID();
+                                default -> skipValue();
+                            }
+                        }
+                        endObject();
+
+                        if (location != null && owner != null) {
+                            campBanners.put(location, owner);
+                        }
+                    }
+                    endArray();
+                }
+                case "bannerDesigns" -> {
+                    beginArray();
+                    while (hasNext()) {
+                        beginObject();
+                        UUID playerId = null;
+                        CampBannerMap.BannerDesign design = null;
+
+                        while (hasNext()) {
+                            switch (nextName()) {
+                                case "playerId" -> playerId = readUUID();
+                                case "design" -> design = readBannerDesign();
+                                default -> skipValue();
+                            }
+                        }
+                        endObject();
+
+                        if (playerId != null && design != null) {
+                            bannerDesigns.put(playerId, design);
+                        }
+                    }
+                    endArray();
+                }
+                default -> skipValue();
+            }
+        }
+
+        endObject();
+    }
+
     public Waypoint readWaypoint() throws IOException {
         if (peek() == JsonToken.NULL) {
             nextNull();
@@ -75,9 +132,10 @@ public class GsonReader extends JsonReader {
         }
 
         int id = -1;
-        Location location = null;
+        BlockPos location = null;
         ArrayList<UUID> contributors = null;
         boolean active = false;
+        Waypoint.BannerSnapshot banner = null;
 
         beginObject();
         while (hasNext()) {
@@ -86,12 +144,13 @@ public class GsonReader extends JsonReader {
                 case "location" -> location = readLocation();
                 case "contributors" -> contributors = readArrayListUUID();
                 case "active" -> active = nextBoolean();
+                case "banner" -> banner = readBannerSnapshot();
                 default -> throw new IOException("Unrecognized property name");
             }
         }
         endObject();
 
-        return id == -1 ? null : new Waypoint(id, location, contributors, active);
+        return id == -1 ? null : new Waypoint(id, location, contributors, active, banner);
     }
 
     public Traveler readTraveler() throws IOException {
@@ -102,8 +161,8 @@ public class GsonReader extends JsonReader {
 
         int charges = 0;
         int tokens = 0;
-        Location home = null;
-        Location camp = null;
+        BlockPos home = null;
+        BlockPos camp = null;
         BitSet waypoints = null;
 
         beginObject();
@@ -122,27 +181,23 @@ public class GsonReader extends JsonReader {
         return new Traveler(charges, tokens, home, camp, waypoints);
     }
 
-    public Location readLocation() throws IOException {
+    public BlockPos readLocation() throws IOException {
         if (peek() == JsonToken.NULL) {
             nextNull();
             return null;
         }
 
         var location = nextString().split(",");
-        var world = Bukkit.getWorld(location[0]);
         double x, y, z;
         try {
-            if (world == null) {
-                throw new NullPointerException();
-            }
             x = Double.parseDouble(location[1]);
             y = Double.parseDouble(location[2]);
             z = Double.parseDouble(location[3]);
-        } catch (NullPointerException | NumberFormatException e) {
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
             throw new IOException("Unrecognized Location: " + Arrays.toString(location));
         }
 
-        return new Location(world, x, y, z);
+        return BlockPos.of(location[0], x, y, z);
     }
 
     public BitSet readBitSet() throws IOException {
@@ -205,6 +260,28 @@ public class GsonReader extends JsonReader {
         }
     }
 
+    public Waypoint.BannerSnapshot readBannerSnapshot() throws IOException {
+        if (peek() == JsonToken.NULL) {
+            nextNull();
+            return null;
+        }
+
+        CampBannerMap.BannerDesign design = null;
+        Component customName = null;
+
+        beginObject();
+        while (hasNext()) {
+            switch (nextName()) {
+                case "design" -> design = readBannerDesign();
+                case "customName" -> customName = GsonComponentSerializer.gson().deserialize(nextString());
+                default -> skipValue();
+            }
+        }
+        endObject();
+
+        return design != null ? new Waypoint.BannerSnapshot(design, customName) : null;
+    }
+
     public CampBannerMap.BannerDesign readBannerDesign() throws IOException {
         if (peek() == JsonToken.NULL) {
             nextNull();
@@ -4,24 +4,31 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.Map;
 import java.util.UUID;
 
-import org.bukkit.Location;
-
 import com.google.gson.stream.JsonWriter;
 
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
 public class GsonWriter extends JsonWriter {
 
     public GsonWriter(final File file) throws IOException {
         super(new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8)));
     }
 
-    public void writeWaypointMap(HashMap<Long, Waypoint> value) throws IOException {
+    public GsonWriter(final OutputStream outputStream) {
+        super(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+    }
+
+    public void writeWaypointMap(HashMap<Integer, Waypoint> value) throws IOException {
         if (value == null) {
             nullValue();
             return;
@@ -48,6 +55,39 @@ public class GsonWriter extends JsonWriter {
         endObject();
     }
 
+    public void writeCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        beginObject();
+
+        // Save camp banner locations and owners
+        name("campBanners");
+        beginArray();
+        for (final var entry : campBanners.entrySet()) {
+            beginObject();
+            name("location");
+            writeLocation(entry.getKey());
+            name("owner");
+            writeUUID(entry.getValue());
+            endObject();
+        }
+        endArray();
+
+        // Save player banner designs
+        name("bannerDesigns");
+        beginArray();
+        for (final var entry : bannerDesigns.entrySet()) {
+            beginObject();
+            name("playerId");
+            writeUUID(entry.getKey());
+            name("design");
+            writeBannerDesign(entry.getValue());
+            endObject();
+        }
+        endArray();
+
+        endObject();
+    }
+
     public void writeWaypoint(Waypoint value) throws IOException {
         if (value == null) {
             nullValue();
@@ -58,11 +98,15 @@ public class GsonWriter extends JsonWriter {
         name("id");
         value(value.getId());
         name("location");
-        writeLocation(value.getLocation());
+        writeLocation(value.getPosition());
         name("contributors");
         writeArrayListUUID(value.getContributors());
         name("active");
         value(value.isActive());
+        if (value.getBanner() != null) {
+            name("banner");
+            writeBannerSnapshot(value.getBanner());
+        }
         endObject();
     }
 
@@ -86,13 +130,13 @@ public class GsonWriter extends JsonWriter {
         endObject();
     }
 
-    public void writeLocation(Location value) throws IOException {
+    public void writeLocation(BlockPos value) throws IOException {
         if (value == null) {
             nullValue();
             return;
         }
 
-        var world = value.getWorld().getName();
+        var world = value.getWorldName();
         var x = Double.toString(value.getX());
         var y = Double.toString(value.getY());
         var z = Double.toString(value.getZ());
@@ -133,6 +177,22 @@ public class GsonWriter extends JsonWriter {
         value(value.toString());
     }
 
+    public void writeBannerSnapshot(Waypoint.BannerSnapshot value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+
+        beginObject();
+        name("design");
+        writeBannerDesign(value.design());
+        if (value.customName() != null) {
+            name("customName");
+            value(GsonComponentSerializer.gson().serialize(value.customName()));
+        }
+        endObject();
+    }
+
     public void writeBannerDesign(CampBannerMap.BannerDesign value) throws IOException {
         if (value == null) {
             nullValue();
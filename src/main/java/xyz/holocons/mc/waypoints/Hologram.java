@@ -1,10 +1,11 @@
 package xyz.holocons.mc.waypoints;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.bukkit.entity.Display;
 import org.bukkit.entity.EntityType;
-import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
 import com.comphenix.protocol.PacketType;
@@ -15,20 +16,87 @@ import com.comphenix.protocol.wrappers.WrappedDataWatcher.Registry;
 
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 
-public record Hologram(long chunkKey, UUID uniqueId) {
+public final class Hologram {
 
-    public Hologram(Waypoint waypoint, Player player) {
-        this(waypoint.getChunkKey(), player.getUniqueId());
+    private Hologram() {
     }
 
     private static final Vector HOLOGRAM_POSITION_OFFSET = new Vector(0.5, 1.6, 0.5);
+    // A text display draws its text upwards from its position, rather than
+    // as a name tag above its head
+    private static final Vector TEXT_DISPLAY_POSITION_OFFSET = new Vector(0.5, 2.0, 0.5);
+    // Shown instead of the name by holograms beyond the detail radius
+    private static final Component FAR_ACTIVE_NAME = Component.text("\u2691", NamedTextColor.GOLD);
+    private static final Component FAR_INACTIVE_NAME = Component.text("\u2691", NamedTextColor.GRAY);
+
+    public enum Backend {
+        // An invisible marker armor stand showing its custom name
+        ARMOR_STAND,
+        // A text display entity, lighter for clients to render and tick
+        TEXT_DISPLAY,
+    }
+
+    /**
+     * How holograms are drawn. Only read at startup, since clients cannot
+     * change the type of an entity they already track.
+     *
+     * @param billboard  text display only, how the text turns to face the
+     *                   player
+     * @param viewRange  text display only, a multiplier of the distance it is
+     *                   rendered at
+     * @param textShadow text display only
+     */
+    public record Style(Backend backend, Display.Billboard billboard, float viewRange, boolean textShadow) {
+    }
+
+    /**
+     * What the hologram of a waypoint shows, with its name already
+     * serialized. Kept by the waypoint until its name or active state
+     * changes, so sending it to more players only builds the packets.
+     */
+    public record Appearance(Style style, Vector position, List<WrappedDataValue> metadata) {
+
+        /**
+         * @param detailed whether to show the full name, rather than a
+         *                 marker for holograms far away
+         */
+        public static Appearance of(Waypoint waypoint, Style style, boolean detailed) {
+            final var position = waypoint.getPosition();
+            final var displayName = detailed ? waypoint.getDisplayName()
+                    : waypoint.isActive() ? FAR_ACTIVE_NAME : FAR_INACTIVE_NAME;
+            final var name = WrappedChatComponent
+                    .fromJson(GsonComponentSerializer.gson().serialize(displayName));
+            final var blockPosition = new Vector(position.getX(), position.getY(), position.getZ());
+            return switch (style.backend()) {
+                case ARMOR_STAND -> new Appearance(style, blockPosition.add(HOLOGRAM_POSITION_OFFSET), ObjectList.of(
+                        new WrappedDataValue(0, Registry.get(Byte.class), (byte) 0x20),
+                        new WrappedDataValue(2, Registry.getChatComponentSerializer(true),
+                                Optional.of(name.getHandle())),
+                        new WrappedDataValue(3, Registry.get(Boolean.class), true),
+                        new WrappedDataValue(15, Registry.get(Byte.class), (byte) (0x08 | 0x10))));
+                // https://wiki.vg/Entity_metadata#Display
+                // https://wiki.vg/Entity_metadata#Text_Display
+                case TEXT_DISPLAY -> new Appearance(style, blockPosition.add(TEXT_DISPLAY_POSITION_OFFSET),
+                        ObjectList.of(
+                                new WrappedDataValue(15, Registry.get(Byte.class),
+                                        (byte) style.billboard().ordinal()),
+                                new WrappedDataValue(17, Registry.get(Float.class), style.viewRange()),
+                                new WrappedDataValue(23, Registry.getChatComponentSerializer(false),
+                                        name.getHandle()),
+                                new WrappedDataValue(27, Registry.get(Byte.class),
+                                        (byte) (style.textShadow() ? 0x01 : 0))));
+            };
+        }
+    }
 
     // https://nms.screamingsandals.org/1.19.3/net/minecraft/network/protocol/game/ClientboundAddEntityPacket.html
     // https://wiki.vg/Protocol#Spawn_Entity
-    public static PacketContainer getSpawnPacket(int entityId, UUID uniqueId, Waypoint waypoint) {
-        var location = waypoint.getLocation().add(HOLOGRAM_POSITION_OFFSET);
+    public static PacketContainer getSpawnPacket(int entityId, UUID uniqueId, Waypoint waypoint, Style style) {
+        var position = waypoint.getHologramAppearance(style, true).position();
         var packet = new PacketContainer(PacketType.Play.Server.SPAWN_ENTITY);
         packet.getIntegers()
                 .write(0, entityId) // id
@@ -39,11 +107,12 @@ public record Hologram(long chunkKey, UUID uniqueId) {
         packet.getUUIDs()
                 .write(0, uniqueId); // uuid
         packet.getEntityTypeModifier()
-                .write(0, EntityType.ARMOR_STAND); // type
+                .write(0, style.backend() == Backend.TEXT_DISPLAY ? EntityType.TEXT_DISPLAY
+                        : EntityType.ARMOR_STAND); // type
         packet.getDoubles()
-                .write(0, location.getX()) // x
-                .write(1, location.getY()) // y
-                .write(2, location.getZ()); // z
+                .write(0, position.getX()) // x
+                .write(1, position.getY()) // y
+                .write(2, position.getZ()); // z
         packet.getBytes()
                 .write(0, (byte) 0) // xRot
                 .write(1, (byte) 0) // yRot
@@ -54,13 +123,9 @@ public record Hologram(long chunkKey, UUID uniqueId) {
     // https://nms.screamingsandals.org/1.19.3/net/minecraft/network/protocol/game/ClientboundSetEntityDataPacket.html
     // https://wiki.vg/Protocol#Set_Entity_Metadata
     // https://wiki.vg/Entity_metadata#Entity_Metadata_Format
-    public static PacketContainer getMetadataPacket(int entityId, Waypoint waypoint) {
-        var name = WrappedChatComponent.fromJson(GsonComponentSerializer.gson().serialize(waypoint.getDisplayName()));
-        var metadata = ObjectList.of(
-                new WrappedDataValue(0, Registry.get(Byte.class), (byte) 0x20),
-                new WrappedDataValue(2, Registry.getChatComponentSerializer(true), Optional.of(name.getHandle())),
-                new WrappedDataValue(3, Registry.get(Boolean.class), true),
-                new WrappedDataValue(15, Registry.get(Byte.class), (byte) (0x08 | 0x10)));
+    public static PacketContainer getMetadataPacket(int entityId, Waypoint waypoint, boolean detailed,
+            Style style) {
+        var metadata = waypoint.getHologramAppearance(style, detailed).metadata();
         var packet = new PacketContainer(PacketType.Play.Server.ENTITY_METADATA);
         packet.getIntegers()
                 .write(0, entityId); // id
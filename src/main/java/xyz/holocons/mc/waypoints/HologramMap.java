@@ -1,16 +1,27 @@
 package xyz.holocons.mc.waypoints;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
+import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.PacketContainer;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2BooleanOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 public class HologramMap {
 
@@ -24,12 +35,81 @@ public class HologramMap {
         }
     }
 
+    private enum Kind {
+        SPAWN,
+        METADATA,
+        DESTROY,
+    }
+
+    private record Queued(Kind kind, int entityId, PacketContainer packet) {
+    }
+
+    /**
+     * The packets for one player since the last flush, in order.
+     */
+    private static class Outbound {
+
+        private final Player player;
+        private final ArrayList<Queued> packets;
+        private final IntOpenHashSet spawned;
+
+        private Outbound(Player player) {
+            this.player = player;
+            this.packets = new ArrayList<>();
+            this.spawned = new IntOpenHashSet();
+        }
+
+        private void add(Kind kind, int entityId, PacketContainer packet) {
+            switch (kind) {
+                case SPAWN -> spawned.add(entityId);
+                case METADATA -> {
+                    // Metadata always carries every value, so only the latest counts
+                    for (var i = packets.size() - 1; i >= 0; i--) {
+                        final var queued = packets.get(i);
+                        if (queued.entityId() == entityId && queued.kind() == Kind.METADATA) {
+                            packets.set(i, new Queued(kind, entityId, packet));
+                            return;
+                        }
+                    }
+                }
+                case DESTROY -> {
+                    // The client never has to see an entity spawned and destroyed in one tick
+                    if (spawned.remove(entityId)) {
+                        packets.removeIf(queued -> queued.entityId() == entityId);
+                        return;
+                    }
+                }
+            }
+            packets.add(new Queued(kind, entityId, packet));
+        }
+    }
+
+    // Clients reject bundles of more packets than this
+    private static final int MAX_BUNDLE_SIZE = 4096;
+
     private final ProtocolManager protocolManager;
-    private final HashMap<Hologram, Integer> holograms;
+    private final Hologram.Style style;
+    private final boolean bundles;
+    private final Int2ObjectOpenHashMap<Outbound> outbound;
+    private final PlayerIndex players;
+    // Entity id of each hologram a player sees, by player index and world
+    // chunk key, since there is at most one waypoint per chunk
+    private final Int2ObjectOpenHashMap<Long2IntOpenHashMap> shown;
+    // Indexes of the players seeing each hologram, by world chunk key
+    private final Long2ObjectOpenHashMap<IntOpenHashSet> viewers;
+    // Whether each waypoint hologram a player sees shows the full name, by
+    // player index and world chunk key. Camps are not included.
+    private final Int2ObjectOpenHashMap<Long2BooleanOpenHashMap> detail;
 
-    public HologramMap() {
+    public HologramMap(Hologram.Style style) {
         this.protocolManager = ProtocolLibrary.getProtocolManager();
-        this.holograms = new HashMap<>();
+        this.style = style;
+        this.bundles = PacketType.Play.Server.BUNDLE.isSupported();
+        this.outbound = new Int2ObjectOpenHashMap<>();
+        this.players = PlayerIndex.global();
+        this.shown = new Int2ObjectOpenHashMap<>();
+        this.viewers = new Long2ObjectOpenHashMap<>();
+        this.detail = new Int2ObjectOpenHashMap<>();
     }
 
     public void show(Waypoint waypoint, Player player) {
@@ -37,35 +117,108 @@ public class HologramMap {
     }
 
     public void show(Waypoint waypoint, Collection<? extends Player> players) {
+        show(waypoint, players, true);
+    }
+
+    /**
+     * @param detailed whether to show the full name, rather than a marker
+     */
+    public void show(Waypoint waypoint, Collection<? extends Player> players, boolean detailed) {
+        // Every player gets the same entity, so both packets are built once
         final var fakeEntity = new FakeEntity();
-        final var spawnPacket = Hologram.getSpawnPacket(fakeEntity.entityId, fakeEntity.uniqueId, waypoint);
+        final var spawnPacket = Hologram.getSpawnPacket(fakeEntity.entityId, fakeEntity.uniqueId, waypoint, style);
+        final var metadataPacket = Hologram.getMetadataPacket(fakeEntity.entityId, waypoint, detailed, style);
+        final var camp = waypoint instanceof CampWaypoint;
+        final var chunkKey = waypoint.getWorldChunkKey();
+        final var chunkViewers = viewers.computeIfAbsent(chunkKey, key -> new IntOpenHashSet());
         players.forEach(player -> {
-            protocolManager.sendServerPacket(player, spawnPacket);
-            final var hologram = new Hologram(waypoint, player);
-            final var entityId = holograms.put(hologram, fakeEntity.entityId);
-            if (entityId != null) {
+            final var index = this.players.intern(player.getUniqueId());
+            queue(player, index, Kind.SPAWN, fakeEntity.entityId, spawnPacket);
+            final var entityIds = shown.computeIfAbsent(index, key -> {
+                final var map = new Long2IntOpenHashMap();
+                map.defaultReturnValue(-1);
+                return map;
+            });
+            final var entityId = entityIds.put(chunkKey, fakeEntity.entityId);
+            if (entityId != -1) {
                 final var destroyPacket = Hologram.getDestroyPacket(entityId);
-                protocolManager.sendServerPacket(player, destroyPacket);
+                queue(player, index, Kind.DESTROY, entityId, destroyPacket);
             }
+            chunkViewers.add(index);
+            if (!camp) {
+                detail.computeIfAbsent(index, key -> new Long2BooleanOpenHashMap()).put(chunkKey, detailed);
+            }
+            queue(player, index, Kind.METADATA, fakeEntity.entityId, metadataPacket);
         });
-        update(waypoint, players);
+        if (chunkViewers.isEmpty()) {
+            viewers.remove(chunkKey);
+        }
     }
 
     public void showTrackedPlayers(Waypoint waypoint, Player player) {
         show(waypoint, getTrackedPlayers(player));
     }
 
-    public void update(Waypoint waypoint, Player player) {
-        final var hologram = new Hologram(waypoint, player);
-        final var entityId = holograms.get(hologram);
-        if (entityId != null) {
-            final var packet = Hologram.getMetadataPacket(entityId, waypoint);
-            protocolManager.sendServerPacket(player, packet);
+    /**
+     * Makes the waypoint holograms a player sees exactly {@code visible}:
+     * hides the others, shows the missing ones, and switches those whose
+     * level of detail changed. Camp holograms are left alone.
+     */
+    public void showOnly(Player player, Collection<Waypoint> visible, Predicate<Waypoint> detailed) {
+        final var index = players.intern(player.getUniqueId());
+        final var chunkKeys = new LongOpenHashSet(visible.size());
+        for (final var waypoint : visible) {
+            final var chunkKey = waypoint.getWorldChunkKey();
+            chunkKeys.add(chunkKey);
+            final var levels = detail.get(index);
+            final var isDetailed = detailed.test(waypoint);
+            if (levels == null || !levels.containsKey(chunkKey)) {
+                show(waypoint, List.of(player), isDetailed);
+            } else if (levels.get(chunkKey) != isDetailed) {
+                levels.put(chunkKey, isDetailed);
+                final var entityId = shown.get(index).get(chunkKey);
+                queue(player, index, Kind.METADATA, entityId,
+                        Hologram.getMetadataPacket(entityId, waypoint, isDetailed, style));
+            }
+        }
+        final var levels = detail.get(index);
+        if (levels == null) {
+            return;
         }
+        final var hidden = new LongArrayList();
+        levels.keySet().forEach(chunkKey -> {
+            if (!chunkKeys.contains(chunkKey)) {
+                hidden.add(chunkKey);
+            }
+        });
+        hidden.forEach(chunkKey -> hide(chunkKey, player));
+    }
+
+    public void update(Waypoint waypoint, Player player) {
+        update(waypoint, List.of(player));
     }
 
     public void update(Waypoint waypoint, Collection<? extends Player> players) {
-        players.forEach(player -> update(waypoint, player));
+        // Players shown the waypoint together share an entity, and so a packet
+        final var chunkKey = waypoint.getWorldChunkKey();
+        final var packets = new Int2ObjectOpenHashMap<PacketContainer>();
+        final var farPackets = new Int2ObjectOpenHashMap<PacketContainer>();
+        players.forEach(player -> {
+            final var index = this.players.indexOf(player.getUniqueId());
+            final var entityIds = shown.get(index);
+            final var entityId = entityIds != null ? entityIds.get(chunkKey) : -1;
+            if (entityId == -1) {
+                return;
+            }
+            final var levels = detail.get(index);
+            if (levels == null || levels.getOrDefault(chunkKey, true)) {
+                queue(player, index, Kind.METADATA, entityId,
+                        packets.computeIfAbsent(entityId, id -> Hologram.getMetadataPacket(id, waypoint, true, style)));
+            } else {
+                queue(player, index, Kind.METADATA, entityId,
+                        farPackets.computeIfAbsent(entityId, id -> Hologram.getMetadataPacket(id, waypoint, false, style)));
+            }
+        });
     }
 
     public void updateTrackedPlayers(Waypoint waypoint, Player player) {
@@ -73,12 +226,26 @@ public class HologramMap {
     }
 
     public void hide(Waypoint waypoint, Player player) {
-        final var hologram = new Hologram(waypoint, player);
-        final var entityId = holograms.remove(hologram);
-        if (entityId != null) {
-            final var packet = Hologram.getDestroyPacket(entityId);
-            protocolManager.sendServerPacket(player, packet);
+        hide(waypoint.getWorldChunkKey(), player);
+    }
+
+    private void hide(long chunkKey, Player player) {
+        final var index = players.indexOf(player.getUniqueId());
+        final var entityIds = shown.get(index);
+        if (entityIds == null) {
+            return;
         }
+        final var entityId = entityIds.remove(chunkKey);
+        if (entityId == -1) {
+            return;
+        }
+        if (entityIds.isEmpty()) {
+            shown.remove(index);
+        }
+        removeViewer(chunkKey, index);
+        removeDetail(index, chunkKey);
+        final var packet = Hologram.getDestroyPacket(entityId);
+        queue(player, index, Kind.DESTROY, entityId, packet);
     }
 
     public void hide(Waypoint waypoint, Collection<? extends Player> players) {
@@ -89,13 +256,90 @@ public class HologramMap {
         hide(waypoint, getTrackedPlayers(player));
     }
 
+    /**
+     * Hides the hologram from the players seeing it.
+     */
     public void remove(Waypoint waypoint) {
-        hide(waypoint, Bukkit.getOnlinePlayers());
+        final var chunkKey = waypoint.getWorldChunkKey();
+        final var chunkViewers = viewers.remove(chunkKey);
+        if (chunkViewers == null) {
+            return;
+        }
+        chunkViewers.forEach(index -> {
+            final var entityIds = shown.get(index);
+            final var entityId = entityIds.remove(chunkKey);
+            if (entityIds.isEmpty()) {
+                shown.remove(index);
+            }
+            removeDetail(index, chunkKey);
+            final var player = Bukkit.getPlayer(players.get(index));
+            if (player != null) {
+                queue(player, index, Kind.DESTROY, entityId, Hologram.getDestroyPacket(entityId));
+            }
+        });
     }
 
+    /**
+     * Forgets the holograms of a player who quit, since the client dropped
+     * them already.
+     */
     public void remove(Player player) {
-        final var uniqueId = player.getUniqueId();
-        holograms.keySet().removeIf(hologram -> hologram.uniqueId() == uniqueId);
+        final var index = players.indexOf(player.getUniqueId());
+        outbound.remove(index);
+        detail.remove(index);
+        final var entityIds = shown.remove(index);
+        if (entityIds != null) {
+            entityIds.keySet().forEach(chunkKey -> removeViewer(chunkKey, index));
+        }
+    }
+
+    private void queue(Player player, int index, Kind kind, int entityId, PacketContainer packet) {
+        outbound.computeIfAbsent(index, key -> new Outbound(player)).add(kind, entityId, packet);
+    }
+
+    /**
+     * Sends the packets queued this tick, as one bundle per player where the
+     * client supports bundles. Must run once every tick.
+     */
+    public void flush() {
+        if (outbound.isEmpty()) {
+            return;
+        }
+        for (final var queue : outbound.values()) {
+            if (!queue.player.isOnline() || queue.packets.isEmpty()) {
+                continue;
+            }
+            if (!bundles || queue.packets.size() == 1) {
+                queue.packets.forEach(queued -> protocolManager.sendServerPacket(queue.player, queued.packet()));
+                continue;
+            }
+            for (var from = 0; from < queue.packets.size(); from += MAX_BUNDLE_SIZE) {
+                final var to = Math.min(from + MAX_BUNDLE_SIZE, queue.packets.size());
+                final var bundled = new ArrayList<PacketContainer>(to - from);
+                queue.packets.subList(from, to).forEach(queued -> bundled.add(queued.packet()));
+                final var bundle = new PacketContainer(PacketType.Play.Server.BUNDLE);
+                bundle.getPacketBundles().write(0, bundled);
+                protocolManager.sendServerPacket(queue.player, bundle);
+            }
+        }
+        outbound.clear();
+    }
+
+    private void removeDetail(int index, long chunkKey) {
+        final var levels = detail.get(index);
+        if (levels != null) {
+            levels.remove(chunkKey);
+            if (levels.isEmpty()) {
+                detail.remove(index);
+            }
+        }
+    }
+
+    private void removeViewer(long chunkKey, int index) {
+        final var chunkViewers = viewers.get(chunkKey);
+        if (chunkViewers != null && chunkViewers.remove(index) && chunkViewers.isEmpty()) {
+            viewers.remove(chunkKey);
+        }
     }
 
     private static Collection<Player> getTrackedPlayers(Player player) {
@@ -0,0 +1,586 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Append-only log of the changes made since the last full save, so a crash
+ * loses at most the current tick instead of everything since the last save.
+ * <p>
+ * Changes are coalesced per tick on the server thread and appended as one
+ * fsynced batch on the I/O executor. Each save starts a new segment and
+ * deletes the older ones once its snapshot is on disk; replaying the
+ * remaining segments on top of the snapshot restores the latest state.
+ * <p>
+ * A snapshot may already contain some of the changes replayed on top of it.
+ * Most records set absolute values, which replaying again is harmless for.
+ * The others remove something, either one waypoint or camp banner, or a
+ * waypoint, camp or home from every traveler. Replaying one of those again
+ * also takes away anything the snapshot put back after it, so the invariant
+ * is that segments are replayed whole and in order: whatever was put back
+ * was journaled after the removal, and is replayed after it too.
+ */
+public class Journal {
+
+    public static final String DIRECTORY = "journal";
+    private static final String EXTENSION = ".log";
+
+    private static final byte TRAVELER = 1;
+    private static final byte WAYPOINT = 2;
+    private static final byte WAYPOINT_REMOVED = 3;
+    private static final byte WAYPOINT_UNREGISTERED = 4;
+    private static final byte CAMPS_REMOVED = 5;
+    private static final byte HOMES_REMOVED = 6;
+    private static final byte CAMP_BANNER_ADDED = 7;
+    private static final byte CAMP_BANNER_REMOVED = 8;
+    private static final byte BANNER_DESIGN = 9;
+
+    private final WaypointsPlugin plugin;
+    private final File directory;
+    private final boolean enabled;
+    private final long compactSize;
+
+    // Server thread
+    private final LinkedHashMap<UUID, PendingTraveler> pendingTravelers;
+    private final LinkedHashSet<Waypoint> pendingWaypoints;
+    private final ByteArrayOutputStream batch;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream recordBuffer;
+    private final DataOutputStream record;
+    private long segment;
+    private boolean replaying;
+    private boolean suspended;
+
+    // I/O executor
+    private FileChannel channel;
+    private long channelSegment;
+    private long retainUntil;
+    private volatile boolean compacting;
+
+    private record PendingTraveler(Traveler traveler, int fields) {
+    }
+
+    public Journal(WaypointsPlugin plugin) {
+        this.plugin = plugin;
+        this.directory = new File(plugin.getDataFolder(), DIRECTORY);
+        this.enabled = plugin.isJournalEnabled();
+        this.compactSize = plugin.getJournalCompactSize() * 1024L;
+        this.pendingTravelers = new LinkedHashMap<>();
+        this.pendingWaypoints = new LinkedHashSet<>();
+        this.batch = new ByteArrayOutputStream();
+        this.out = new DataOutputStream(batch);
+        this.recordBuffer = new ByteArrayOutputStream();
+        this.record = new DataOutputStream(recordBuffer);
+        this.segment = listSegments().stream().mapToLong(Journal::getSegment).max().orElse(-1) + 1;
+        this.retainUntil = Long.MIN_VALUE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stops recording changes while the data is being replaced, since the
+     * reload that follows drops them. Called on the server thread.
+     */
+    public void suspend() {
+        flush();
+        suspended = true;
+    }
+
+    public void resume() {
+        suspended = false;
+    }
+
+    public void travelerChanged(UUID uniqueId, Traveler traveler, int fields) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        pendingTravelers.merge(uniqueId, new PendingTraveler(traveler, fields),
+                (previous, current) -> new PendingTraveler(traveler, previous.fields() | fields));
+    }
+
+    public void waypointChanged(Waypoint waypoint) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        pendingWaypoints.add(waypoint);
+    }
+
+    public void waypointRemoved(Waypoint waypoint) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        final var worldId = waypoint.getWorldId();
+        final var chunkKey = waypoint.getChunkKey();
+        append(WAYPOINT_REMOVED, () -> {
+            writeUUID(worldId);
+            record.writeLong(chunkKey);
+        });
+    }
+
+    public void waypointUnregistered(int id) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        append(WAYPOINT_UNREGISTERED, () -> record.writeInt(id));
+    }
+
+    public void campsRemoved() {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        append(CAMPS_REMOVED, () -> {
+        });
+    }
+
+    public void homesRemoved() {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        append(HOMES_REMOVED, () -> {
+        });
+    }
+
+    public void campBannerAdded(BlockPos position, UUID owner) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        append(CAMP_BANNER_ADDED, () -> {
+            writePosition(position);
+            writeUUID(owner);
+        });
+    }
+
+    public void campBannerRemoved(BlockPos position) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        append(CAMP_BANNER_REMOVED, () -> writePosition(position));
+    }
+
+    public void bannerDesignRegistered(UUID playerId, CampBannerMap.BannerDesign design) {
+        if (!enabled || replaying || suspended) {
+            return;
+        }
+        drainPending();
+        append(BANNER_DESIGN, () -> {
+            writeUUID(playerId);
+            BinaryWriter.writeBannerDesign(record, design);
+        });
+    }
+
+    /**
+     * Hands everything recorded so far to the I/O executor as one batch.
+     * Called every tick on the server thread.
+     */
+    public void flush() {
+        drainPending();
+        if (batch.size() == 0) {
+            return;
+        }
+        final var bytes = batch.toByteArray();
+        final var target = segment;
+        batch.reset();
+        plugin.getIoExecutor().execute(() -> {
+            try {
+                write(target, bytes);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to append to journal", e);
+            }
+        });
+    }
+
+    /**
+     * Flushes the current segment and starts a new one. Called on the server
+     * thread right before a snapshot is captured.
+     *
+     * @return the last segment whose changes the snapshot will contain
+     */
+    public long rotate() {
+        flush();
+        return segment++;
+    }
+
+    /**
+     * Deletes every segment up to {@code checkpoint} once the snapshot
+     * captured with it has been written. Must run on the I/O executor.
+     */
+    public void deleteThrough(long checkpoint) {
+        compacting = false;
+        if (checkpoint < retainUntil) {
+            return;
+        }
+        try {
+            if (channel != null && channelSegment <= checkpoint) {
+                channel.close();
+                channel = null;
+            }
+            for (final var file : listSegments()) {
+                if (getSegment(file) <= checkpoint) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to delete old journal segments", e);
+        }
+    }
+
+    /**
+     * Keeps all segments after a failed save, until {@link #release()} says
+     * the lost changes have been flagged for saving again. Must run on the
+     * I/O executor.
+     */
+    public void retain() {
+        retainUntil = Long.MAX_VALUE;
+    }
+
+    /**
+     * Lets snapshots captured from now on delete segments again. Called on
+     * the server thread.
+     */
+    public void release() {
+        final var from = segment;
+        plugin.getIoExecutor().execute(() -> retainUntil = from);
+    }
+
+    public void close() {
+        plugin.getIoExecutor().execute(() -> {
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to close journal", e);
+            }
+        });
+    }
+
+    /**
+     * Applies every remaining segment on top of the loaded snapshot. Must be
+     * called on the server thread, with no journal writes pending.
+     *
+     * @return the number of records replayed
+     */
+    public int replay() {
+        final var segments = listSegments();
+        var count = 0;
+        replaying = true;
+        try {
+            for (final var file : segments) {
+                count += replay(file);
+            }
+        } finally {
+            replaying = false;
+        }
+        segment = Math.max(segment, segments.stream().mapToLong(Journal::getSegment).max().orElse(-1) + 1);
+        return count;
+    }
+
+    /**
+     * Lists the players whose travelers the journal changes, so they can be
+     * read before it is replayed. Must only be used on the I/O executor.
+     */
+    public Set<UUID> getTravelers() {
+        final var uniqueIds = new HashSet<UUID>();
+        for (final var file : listSegments()) {
+            read(file, in -> {
+                if (in.readByte() == TRAVELER) {
+                    uniqueIds.add(readUUID(in));
+                }
+            });
+        }
+        return uniqueIds;
+    }
+
+    @FunctionalInterface
+    private interface RecordReader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    private int replay(File file) {
+        return read(file, this::apply);
+    }
+
+    /**
+     * Reads every intact record of a segment, stopping at the first torn one.
+     *
+     * @return how many records were read
+     */
+    private int read(File file, RecordReader reader) {
+        var count = 0;
+        try (final var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                final var checksum = in.readInt();
+                final var payload = in.readNBytes(length);
+                if (payload.length != length || checksum != checksum(payload, 0, length)) {
+                    plugin.getLogger().warning("Ignoring incomplete record at the end of journal " + file.getName());
+                    break;
+                }
+                try {
+                    reader.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                    count++;
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Skipping unreadable record in journal " + file.getName(),
+                            e);
+                }
+            }
+        } catch (EOFException e) {
+            plugin.getLogger().warning("Ignoring incomplete record at the end of journal " + file.getName());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read journal " + file.getName(), e);
+        }
+        return count;
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        final var travelerMap = plugin.getTravelerMap();
+        final var waypointMap = plugin.getWaypointMap();
+        switch (in.readByte()) {
+            case TRAVELER -> {
+                final var uniqueId = readUUID(in);
+                final var traveler = travelerMap.getOrCreateTraveler(uniqueId);
+                final var fields = in.readUnsignedByte();
+                if ((fields & Traveler.CHARGES) != 0) {
+                    traveler.setCharges(in.readInt());
+                }
+                if ((fields & Traveler.TOKENS) != 0) {
+                    traveler.setTokens(in.readInt());
+                }
+                if ((fields & Traveler.HOME) != 0) {
+                    traveler.setHome(readPosition(in));
+                }
+                if ((fields & Traveler.CAMP) != 0) {
+                    traveler.setCamp(readPosition(in));
+                }
+                if ((fields & Traveler.WAYPOINTS) != 0) {
+                    travelerMap.setWaypoints(uniqueId, BitSet.valueOf(in.readNBytes(in.readInt())));
+                }
+            }
+            case WAYPOINT -> {
+                final var id = in.readInt();
+                final var position = readPosition(in);
+                final var size = in.readInt();
+                final var contributors = new ArrayList<UUID>(size);
+                for (int i = 0; i < size; i++) {
+                    contributors.add(readUUID(in));
+                }
+                final var active = in.readBoolean();
+                final var banner = in.available() > 0 ? BinaryReader.readBannerSnapshot(in) : null;
+                if (position == null) {
+                    throw new IOException("Waypoint " + id + " has no location");
+                }
+                waypointMap.addWaypoint(new Waypoint(id, position, contributors, active, banner));
+            }
+            case WAYPOINT_REMOVED -> {
+                final var world = Bukkit.getWorld(readUUID(in));
+                final var chunkKey = in.readLong();
+                final var waypoint = world != null ? waypointMap.getWaypoint(world, chunkKey) : null;
+                if (waypoint != null) {
+                    waypointMap.removeWaypoint(waypoint);
+                }
+            }
+            case WAYPOINT_UNREGISTERED -> travelerMap.removeWaypoint(in.readInt());
+            case CAMPS_REMOVED -> travelerMap.removeCamps();
+            case HOMES_REMOVED -> travelerMap.removeHomes();
+            case CAMP_BANNER_ADDED -> {
+                final var position = readPosition(in);
+                final var owner = readUUID(in);
+                if (position == null) {
+                    throw new IOException("Camp banner has no location");
+                }
+                plugin.getCampBannerMap().addCampBanner(position, owner);
+            }
+            case CAMP_BANNER_REMOVED -> {
+                final var position = readPosition(in);
+                if (position != null) {
+                    plugin.getCampBannerMap().removeCampBanner(position);
+                }
+            }
+            case BANNER_DESIGN -> plugin.getCampBannerMap().registerBannerDesign(readUUID(in),
+                    BinaryReader.readBannerDesign(in));
+            default -> {
+                // Written by a newer version
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write() throws IOException;
+    }
+
+    private void append(byte type, RecordWriter writer) {
+        try {
+            record.writeByte(type);
+            writer.write();
+            final var payload = recordBuffer.toByteArray();
+            recordBuffer.reset();
+            out.writeInt(payload.length);
+            out.writeInt(checksum(payload, 0, payload.length));
+            out.write(payload);
+        } catch (IOException e) {
+            // Only thrown by the underlying streams, which are in memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void drainPending() {
+        for (final var entry : pendingTravelers.entrySet()) {
+            final var uniqueId = entry.getKey();
+            final var traveler = entry.getValue().traveler();
+            final var fields = entry.getValue().fields();
+            append(TRAVELER, () -> {
+                writeUUID(uniqueId);
+                record.writeByte(fields);
+                if ((fields & Traveler.CHARGES) != 0) {
+                    record.writeInt(traveler.getCharges());
+                }
+                if ((fields & Traveler.TOKENS) != 0) {
+                    record.writeInt(traveler.getTokens());
+                }
+                if ((fields & Traveler.HOME) != 0) {
+                    writePosition(traveler.getHome());
+                }
+                if ((fields & Traveler.CAMP) != 0) {
+                    writePosition(traveler.getCamp());
+                }
+                if ((fields & Traveler.WAYPOINTS) != 0) {
+                    final var bytes = traveler.getWaypoints().toByteArray();
+                    record.writeInt(bytes.length);
+                    record.write(bytes);
+                }
+            });
+        }
+        pendingTravelers.clear();
+
+        for (final var waypoint : pendingWaypoints) {
+            append(WAYPOINT, () -> {
+                record.writeInt(waypoint.getId());
+                writePosition(waypoint.getPosition());
+                final var contributors = waypoint.getContributors().stream()
+                        .filter(uniqueId -> uniqueId != null).toList();
+                record.writeInt(contributors.size());
+                for (final var uniqueId : contributors) {
+                    writeUUID(uniqueId);
+                }
+                record.writeBoolean(waypoint.isActive());
+                BinaryWriter.writeBannerSnapshot(record, waypoint.getBanner());
+            });
+        }
+        pendingWaypoints.clear();
+    }
+
+    private void write(long target, byte[] bytes) throws IOException {
+        if (channel == null || channelSegment != target) {
+            if (channel != null) {
+                channel.close();
+            }
+            directory.mkdirs();
+            channel = FileChannel.open(getSegmentFile(target).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channelSegment = target;
+        }
+        final var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+
+        if (compactSize > 0 && channel.size() >= compactSize && !compacting) {
+            compacting = true;
+            if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, plugin::saveData);
+            }
+        }
+    }
+
+    private void writeUUID(UUID value) throws IOException {
+        record.write(DataType.UUID.toPrimitive(value, null));
+    }
+
+    private void writePosition(BlockPos value) throws IOException {
+        record.writeBoolean(value != null);
+        if (value != null) {
+            record.write(DataType.BLOCK_POS.toPrimitive(value, null));
+        }
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return DataType.UUID.fromPrimitive(in.readNBytes(BinaryWriter.UUID_BYTES), null);
+    }
+
+    private static BlockPos readPosition(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final var position = DataType.BLOCK_POS.fromPrimitive(in.readNBytes(BinaryWriter.LOCATION_BYTES), null)
+                .resolve();
+        if (position.getWorld() == null) {
+            throw new IOException("Unrecognized Location: " + position);
+        }
+        return position;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        final var crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private File getSegmentFile(long segment) {
+        return new File(directory, segment + EXTENSION);
+    }
+
+    private static long getSegment(File file) {
+        final var name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    private List<File> listSegments() {
+        final var files = directory.listFiles((dir, name) -> name.matches("\\d+\\.log"));
+        if (files == null) {
+            return List.of();
+        }
+        return Arrays.stream(files).sorted(Comparator.comparingLong(Journal::getSegment)).toList();
+    }
+}
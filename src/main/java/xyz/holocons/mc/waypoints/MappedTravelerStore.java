@@ -0,0 +1,433 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every traveler in one memory-mapped file: a header, an open-addressing
+ * table of fixed-width slots keyed by UUID, and an overflow area for waypoint
+ * bitsets too long to fit in a slot. Reads and writes touch only the mapped
+ * pages of one slot, and making them durable is a single {@code msync}.
+ * <p>
+ * The table is rebuilt into a new file, which then replaces the old one, when
+ * it gets half full or when most of the overflow area is garbage.
+ */
+public class MappedTravelerStore implements TravelerStore {
+
+    public static final String FILENAME = "store.bin";
+
+    private static final int MAGIC = 0x57485453; // "WHTS"
+    // Version 2 added locations stored by world name
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 12;
+    private static final int HEADER_OVERFLOW_END = 16;
+
+    private static final int SLOT_BYTES = 128;
+    private static final int SLOT_MOST_SIG_BITS = 0;
+    private static final int SLOT_LEAST_SIG_BITS = 8;
+    private static final int SLOT_FLAGS = 16;
+    private static final int SLOT_CHARGES = 20;
+    private static final int SLOT_TOKENS = 24;
+    private static final int SLOT_WORDS = 28;
+    private static final int SLOT_BITS = 32; // Two inline words, or the overflow position
+    private static final int SLOT_HOME = 48;
+    private static final int SLOT_CAMP = 88;
+    private static final int INLINE_WORDS = 2;
+
+    private static final byte USED = 1;
+    private static final byte HAS_HOME = 1 << 1;
+    private static final byte HAS_CAMP = 1 << 2;
+    private static final byte HOME_NAMED = 1 << 3;
+    private static final byte CAMP_NAMED = 1 << 4;
+
+    // A location holds x, y and z, then either the world UUID or its name
+    private static final int WORLD_NAME_BYTES = 16;
+    private static final UUID UNKNOWN_WORLD_ID = new UUID(0, 0);
+
+    private static final int MIN_COMPACT_GARBAGE = 1 << 20;
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int overflowEnd;
+    private int overflowLive;
+
+    public MappedTravelerStore(File file) throws IOException {
+        this.file = file;
+        open(INITIAL_CAPACITY);
+    }
+
+    private void open(int initialCapacity) throws IOException {
+        file.getParentFile().mkdirs();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, getOverflowStart(initialCapacity));
+            writeHeader(buffer, initialCapacity, 0, getOverflowStart(initialCapacity));
+        } else {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Unrecognized traveler store " + file.getName());
+            }
+            if (buffer.getInt(4) > VERSION) {
+                throw new IOException("Unsupported traveler store version: " + buffer.getInt(4));
+            }
+            // Older files read as they are, but older plugins cannot read what this one writes
+            buffer.putInt(4, VERSION);
+        }
+        capacity = buffer.getInt(HEADER_CAPACITY);
+        count = buffer.getInt(HEADER_COUNT);
+        overflowEnd = (int) buffer.getLong(HEADER_OVERFLOW_END);
+        overflowLive = 0;
+        for (int index = 0; index < capacity; index++) {
+            final var words = getOverflowWords(getSlotOffset(index));
+            overflowLive += words * Long.BYTES;
+        }
+    }
+
+    private static void writeHeader(MappedByteBuffer target, int capacity, int count, int overflowEnd) {
+        target.putInt(0, MAGIC);
+        target.putInt(4, VERSION);
+        target.putInt(HEADER_CAPACITY, capacity);
+        target.putInt(HEADER_COUNT, count);
+        target.putLong(HEADER_OVERFLOW_END, overflowEnd);
+    }
+
+    private static int getOverflowStart(int capacity) {
+        return HEADER_BYTES + capacity * SLOT_BYTES;
+    }
+
+    private static int getSlotOffset(int index) {
+        return HEADER_BYTES + index * SLOT_BYTES;
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        var h = mostSigBits ^ leastSigBits;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * @return the slot holding {@code uniqueId}, or the empty slot where it
+     *         would go
+     */
+    private static int find(MappedByteBuffer target, int capacity, long mostSigBits, long leastSigBits) {
+        final var mask = capacity - 1;
+        var index = hash(mostSigBits, leastSigBits) & mask;
+        while (true) {
+            final var offset = getSlotOffset(index);
+            if ((target.get(offset + SLOT_FLAGS) & USED) == 0
+                    || target.getLong(offset + SLOT_MOST_SIG_BITS) == mostSigBits
+                            && target.getLong(offset + SLOT_LEAST_SIG_BITS) == leastSigBits) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private boolean isUsed(int offset) {
+        return (buffer.get(offset + SLOT_FLAGS) & USED) != 0;
+    }
+
+    private int getOverflowWords(int offset) {
+        if (!isUsed(offset)) {
+            return 0;
+        }
+        final var words = buffer.getInt(offset + SLOT_WORDS);
+        return words > INLINE_WORDS ? words : 0;
+    }
+
+    @Override
+    public Traveler read(UUID uniqueId) {
+        final var offset = getSlotOffset(find(buffer, capacity, uniqueId.getMostSignificantBits(),
+                uniqueId.getLeastSignificantBits()));
+        return isUsed(offset) ? readSlot(offset) : null;
+    }
+
+    private Traveler readSlot(int offset) {
+        final var flags = buffer.get(offset + SLOT_FLAGS);
+        final var charges = buffer.getInt(offset + SLOT_CHARGES);
+        final var tokens = buffer.getInt(offset + SLOT_TOKENS);
+        final var words = new long[buffer.getInt(offset + SLOT_WORDS)];
+        final var bitsPosition = words.length > INLINE_WORDS ? (int) buffer.getLong(offset + SLOT_BITS)
+                : offset + SLOT_BITS;
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong(bitsPosition + i * Long.BYTES);
+        }
+        final var home = (flags & HAS_HOME) != 0
+                ? readLocation(offset + SLOT_HOME, (flags & HOME_NAMED) != 0)
+                : null;
+        final var camp = (flags & HAS_CAMP) != 0
+                ? readLocation(offset + SLOT_CAMP, (flags & CAMP_NAMED) != 0)
+                : null;
+        return new Traveler(charges, tokens, home, camp, BitSet.valueOf(words));
+    }
+
+    private BlockPos readLocation(int position, boolean named) {
+        final var x = buffer.getDouble(position);
+        final var y = buffer.getDouble(position + 8);
+        final var z = buffer.getDouble(position + 16);
+        if (named) {
+            final var name = new byte[WORLD_NAME_BYTES];
+            buffer.get(position + 24, name);
+            var length = 0;
+            while (length < name.length && name[length] != 0) {
+                length++;
+            }
+            return BlockPos.of(new String(name, 0, length, StandardCharsets.UTF_8), x, y, z);
+        }
+        return BlockPos.of(new UUID(buffer.getLong(position + 24), buffer.getLong(position + 32)), x, y, z);
+    }
+
+    /**
+     * Writes the world by UUID, or by name while only the name is known, e.g.
+     * for data read before the worlds load. If neither fits, the location
+     * already in the slot is kept, since the world would be lost otherwise.
+     *
+     * @param flags the flags of the slot before the write
+     * @param has   the flag saying the slot has this location
+     * @param named the flag saying the location is stored by world name
+     * @return the flags of the location left in the slot
+     */
+    private int writeLocation(int position, BlockPos location, int flags, int has, int named) {
+        if (location == null) {
+            return 0;
+        }
+        final var worldId = location.getWorldId();
+        byte[] name = null;
+        if (worldId.equals(UNKNOWN_WORLD_ID)) {
+            final var worldName = location.getWorldName();
+            name = worldName != null ? worldName.getBytes(StandardCharsets.UTF_8) : null;
+            if (name == null || name.length == 0 || name.length > WORLD_NAME_BYTES) {
+                return flags & (has | named);
+            }
+        }
+        buffer.putDouble(position, location.getX());
+        buffer.putDouble(position + 8, location.getY());
+        buffer.putDouble(position + 16, location.getZ());
+        if (name == null) {
+            buffer.putLong(position + 24, worldId.getMostSignificantBits());
+            buffer.putLong(position + 32, worldId.getLeastSignificantBits());
+            return has;
+        }
+        buffer.put(position + 24, name);
+        for (var i = name.length; i < WORLD_NAME_BYTES; i++) {
+            buffer.put(position + 24 + i, (byte) 0);
+        }
+        return has | named;
+    }
+
+    @Override
+    public void write(UUID uniqueId, Traveler traveler) throws IOException {
+        final var mostSigBits = uniqueId.getMostSignificantBits();
+        final var leastSigBits = uniqueId.getLeastSignificantBits();
+        var offset = getSlotOffset(find(buffer, capacity, mostSigBits, leastSigBits));
+        if (!isUsed(offset) && (count + 1) * 2 > capacity) {
+            rebuild(capacity * 2);
+            offset = getSlotOffset(find(buffer, capacity, mostSigBits, leastSigBits));
+        }
+        final var used = isUsed(offset);
+        final var oldFlags = used ? buffer.get(offset + SLOT_FLAGS) : 0;
+
+        final var words = traveler.getWaypoints().toLongArray();
+        final var oldOverflowWords = getOverflowWords(offset);
+        final int bitsPosition;
+        if (words.length <= INLINE_WORDS) {
+            bitsPosition = offset + SLOT_BITS;
+            overflowLive -= oldOverflowWords * Long.BYTES;
+        } else if (words.length <= oldOverflowWords) {
+            bitsPosition = (int) buffer.getLong(offset + SLOT_BITS);
+            overflowLive -= (oldOverflowWords - words.length) * Long.BYTES;
+        } else {
+            bitsPosition = allocate(words.length * Long.BYTES);
+            overflowLive += (words.length - oldOverflowWords) * Long.BYTES;
+        }
+        for (int i = 0; i < words.length; i++) {
+            buffer.putLong(bitsPosition + i * Long.BYTES, words[i]);
+        }
+        if (words.length <= INLINE_WORDS) {
+            for (int i = words.length; i < INLINE_WORDS; i++) {
+                buffer.putLong(offset + SLOT_BITS + i * Long.BYTES, 0);
+            }
+        } else {
+            buffer.putLong(offset + SLOT_BITS, bitsPosition);
+        }
+
+        final var locationFlags = writeLocation(offset + SLOT_HOME, traveler.getHome(), oldFlags, HAS_HOME,
+                HOME_NAMED) | writeLocation(offset + SLOT_CAMP, traveler.getCamp(), oldFlags, HAS_CAMP, CAMP_NAMED);
+        buffer.putLong(offset + SLOT_MOST_SIG_BITS, mostSigBits);
+        buffer.putLong(offset + SLOT_LEAST_SIG_BITS, leastSigBits);
+        buffer.putInt(offset + SLOT_CHARGES, traveler.getCharges());
+        buffer.putInt(offset + SLOT_TOKENS, traveler.getTokens());
+        buffer.putInt(offset + SLOT_WORDS, words.length);
+        buffer.put(offset + SLOT_FLAGS, (byte) (USED | locationFlags));
+
+        if (!used) {
+            count++;
+            buffer.putInt(HEADER_COUNT, count);
+        }
+    }
+
+    /**
+     * Frees the slot and shifts later slots of its cluster back into the gap,
+     * so no tombstones are needed. The overflow words become garbage.
+     */
+    @Override
+    public void delete(UUID uniqueId) {
+        final var mask = capacity - 1;
+        var gap = find(buffer, capacity, uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+        if (!isUsed(getSlotOffset(gap))) {
+            return;
+        }
+        overflowLive -= getOverflowWords(getSlotOffset(gap)) * Long.BYTES;
+        var index = (gap + 1) & mask;
+        while (isUsed(getSlotOffset(index))) {
+            final var offset = getSlotOffset(index);
+            final var home = hash(buffer.getLong(offset + SLOT_MOST_SIG_BITS),
+                    buffer.getLong(offset + SLOT_LEAST_SIG_BITS)) & mask;
+            // Move the slot unless its home lies cyclically in (gap, index]
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                buffer.put(getSlotOffset(gap), buffer, offset, SLOT_BYTES);
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+        buffer.put(getSlotOffset(gap) + SLOT_FLAGS, (byte) 0);
+        count--;
+        buffer.putInt(HEADER_COUNT, count);
+    }
+
+    private int allocate(int bytes) throws IOException {
+        final var position = overflowEnd;
+        final var end = position + bytes;
+        if (end > buffer.capacity()) {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(end, buffer.capacity() * 2L));
+        }
+        overflowEnd = end;
+        buffer.putLong(HEADER_OVERFLOW_END, overflowEnd);
+        return position;
+    }
+
+    /**
+     * Copies every slot into a new table of {@code newCapacity} slots with a
+     * compacted overflow area, then swaps the new file in.
+     */
+    private void rebuild(int newCapacity) throws IOException {
+        final var tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        final var overflowStart = getOverflowStart(newCapacity);
+        try (final var tempChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var target = tempChannel.map(FileChannel.MapMode.READ_WRITE, 0, overflowStart + overflowLive);
+            var end = overflowStart;
+            for (int index = 0; index < capacity; index++) {
+                final var offset = getSlotOffset(index);
+                if (!isUsed(offset)) {
+                    continue;
+                }
+                final var newOffset = getSlotOffset(find(target, newCapacity,
+                        buffer.getLong(offset + SLOT_MOST_SIG_BITS), buffer.getLong(offset + SLOT_LEAST_SIG_BITS)));
+                target.put(newOffset, buffer, offset, SLOT_BYTES);
+                final var overflowBytes = getOverflowWords(offset) * Long.BYTES;
+                if (overflowBytes > 0) {
+                    target.put(end, buffer, (int) buffer.getLong(offset + SLOT_BITS), overflowBytes);
+                    target.putLong(newOffset + SLOT_BITS, end);
+                    end += overflowBytes;
+                }
+            }
+            writeHeader(target, newCapacity, count, end);
+            target.force();
+        }
+
+        // A mapping is only released once it is collected, so drop every
+        // reference to the old one and close its channel before the file
+        // under it is replaced
+        buffer = null;
+        channel.close();
+        try {
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // The old file was not touched, so keep using it
+            Files.deleteIfExists(tempFile.toPath());
+            open(capacity);
+            throw e;
+        }
+        open(newCapacity);
+    }
+
+    @Override
+    public void updateAll(Consumer<Traveler> action) throws IOException {
+        // Deleting shifts slots back, so wait until the scan is done
+        final var emptied = new ArrayList<UUID>();
+        for (int index = 0; index < capacity; index++) {
+            final var offset = getSlotOffset(index);
+            if (!isUsed(offset)) {
+                continue;
+            }
+            final var traveler = readSlot(offset);
+            action.accept(traveler);
+            if (traveler.isDirty() && traveler.isEmpty()) {
+                emptied.add(getUniqueId(offset));
+            } else if (traveler.isDirty()) {
+                write(getUniqueId(offset), traveler);
+            }
+        }
+        for (final var uniqueId : emptied) {
+            delete(uniqueId);
+        }
+        flush();
+    }
+
+    @Override
+    public void forEach(TravelerVisitor visitor) throws IOException {
+        for (int index = 0; index < capacity; index++) {
+            final var offset = getSlotOffset(index);
+            if (isUsed(offset)) {
+                visitor.visit(getUniqueId(offset), readSlot(offset));
+            }
+        }
+    }
+
+    private UUID getUniqueId(int offset) {
+        return new UUID(buffer.getLong(offset + SLOT_MOST_SIG_BITS), buffer.getLong(offset + SLOT_LEAST_SIG_BITS));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final var garbage = overflowEnd - getOverflowStart(capacity) - overflowLive;
+        if (garbage > MIN_COMPACT_GARBAGE && garbage > overflowLive) {
+            rebuild(capacity);
+        }
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
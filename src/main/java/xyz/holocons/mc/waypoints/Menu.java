@@ -1,7 +1,9 @@
 package xyz.holocons.mc.waypoints;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
@@ -13,6 +15,7 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.persistence.PersistentDataType;
 
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 
 public class Menu implements InventoryHolder {
@@ -22,6 +25,7 @@ public class Menu implements InventoryHolder {
         TELEPORT,
     }
 
+    private static final int SORT_SLOT = 26;
     private static final int HOME_SLOT = 35;
     private static final int CAMP_SLOT = 44;
     private static final int INFO_SLOT = 53;
@@ -31,6 +35,7 @@ public class Menu implements InventoryHolder {
     private final WaypointsPlugin plugin;
     private final Player player;
     private final Type type;
+    private boolean sortByDistance;
 
     public Menu(final WaypointsPlugin plugin, final Player player, final Type type) {
         this.inventory = Bukkit.createInventory(this, 54, Component.text("Waypoints"));
@@ -59,10 +64,8 @@ public class Menu implements InventoryHolder {
     }
 
     private void createEditPage(int page) {
-        final var waypoints = plugin.getWaypointMap()
-                .getAllWaypoints()
-                .sorted(Comparator.comparing(Waypoint::getName))
-                .toList();
+        final var travelerMap = plugin.getTravelerMap();
+        final var waypoints = plugin.getWaypointMap().getSortedWaypoints();
         final var pageCount = Math.max(waypoints.size() - 1, 0) / 48 + 1;
         final var currentPage = page % pageCount;
         final var fromIndex = currentPage * 48;
@@ -72,9 +75,13 @@ public class Menu implements InventoryHolder {
         int slot = 0;
         for (final var waypoint : waypoints.subList(fromIndex, toIndex)) {
             final var item = waypoint.getDisplayItem();
-            final var location = waypoint.getLocation();
             final var meta = item.getItemMeta();
-            meta.getPersistentDataContainer().set(locationKey, DataType.LOCATION, location);
+            meta.getPersistentDataContainer().set(locationKey, DataType.BLOCK_POS, waypoint.getPosition());
+            final var lore = new ArrayList<>(meta.lore());
+            final var registrations = travelerMap.getRegistrationCount(waypoint);
+            lore.add(Component.text(String.format("Registered by %d player%s", registrations,
+                    registrations == 1 ? "" : "s"), NamedTextColor.GRAY));
+            meta.lore(lore);
             item.setItemMeta(meta);
             inventory.setItem(slot, item);
             slot++;
@@ -91,24 +98,38 @@ public class Menu implements InventoryHolder {
     }
 
     private void createTeleportPage(int page) {
-        final var traveler = plugin.getTravelerMap().getOrCreateTraveler(player);
-        final var waypoints = plugin.getWaypointMap()
-                .getActiveWaypoints()
-                .filter(traveler::hasWaypoint)
-                .sorted(Comparator.comparing(Waypoint::getName))
+        final var traveler = plugin.getTravelerMap().getTraveler(player);
+        final var waypointMap = plugin.getWaypointMap();
+        final var registered = traveler.getWaypoints()
+                .stream()
+                .mapToObj(waypointMap::getWaypoint)
+                .filter(waypoint -> waypoint != null && waypoint.isActive())
                 .toList();
-        final var pageCount = Math.max(waypoints.size() - 1, 0) / 48 + 1;
+        final var pageCount = Math.max(registered.size() - 1, 0) / 48 + 1;
         final var currentPage = page % pageCount;
         final var fromIndex = currentPage * 48;
-        final var toIndex = Math.min(fromIndex + 48, waypoints.size());
+        final var toIndex = Math.min(fromIndex + 48, registered.size());
+        final List<Waypoint> waypoints;
+        if (sortByDistance) {
+            // Only the waypoints up to this page are looked up, nearest first,
+            // followed by those in other worlds
+            final var location = player.getLocation();
+            final var nearest = waypointMap.getNearestWaypoints(location, toIndex,
+                    waypoint -> waypoint.isActive() && traveler.hasWaypoint(waypoint));
+            final var elsewhere = registered.stream()
+                    .filter(waypoint -> !waypoint.getPosition().isIn(location.getWorld()))
+                    .sorted(Comparator.comparing(Waypoint::getName));
+            waypoints = Stream.concat(nearest.stream(), elsewhere).limit(toIndex).toList();
+        } else {
+            waypoints = registered.stream().sorted(Comparator.comparing(Waypoint::getName)).toList();
+        }
 
         inventory.clear();
         int slot = 0;
         for (final var waypoint : waypoints.subList(fromIndex, toIndex)) {
             final var item = waypoint.getDisplayItem();
-            final var location = waypoint.getLocation();
             final var meta = item.getItemMeta();
-            meta.getPersistentDataContainer().set(locationKey, DataType.LOCATION, location);
+            meta.getPersistentDataContainer().set(locationKey, DataType.BLOCK_POS, waypoint.getPosition());
             item.setItemMeta(meta);
             inventory.setItem(slot, item);
             slot++;
@@ -121,16 +142,22 @@ public class Menu implements InventoryHolder {
             final var item = new ItemStack(Material.RED_BED);
             final var meta = item.getItemMeta();
             meta.displayName(Component.text("Home"));
-            meta.getPersistentDataContainer().set(locationKey, DataType.LOCATION, home);
+            meta.getPersistentDataContainer().set(locationKey, DataType.BLOCK_POS, home);
             item.setItemMeta(meta);
             inventory.setItem(HOME_SLOT, item);
         }
+        final var sortItem = new ItemStack(Material.COMPASS);
+        final var sortMeta = sortItem.getItemMeta();
+        sortMeta.displayName(Component.text(sortByDistance ? "Sorted by distance" : "Sorted by name"));
+        sortMeta.lore(List.of(Component.text(sortByDistance ? "Click to sort by name" : "Click to sort by distance")));
+        sortItem.setItemMeta(sortMeta);
+        inventory.setItem(SORT_SLOT, sortItem);
         final var camp = traveler.getCamp();
         if (camp != null) {
             final var item = new ItemStack(Material.CAMPFIRE);
             final var meta = item.getItemMeta();
             meta.displayName(Component.text("Camp"));
-            meta.getPersistentDataContainer().set(locationKey, DataType.LOCATION, camp);
+            meta.getPersistentDataContainer().set(locationKey, DataType.BLOCK_POS, camp);
             item.setItemMeta(meta);
             inventory.setItem(CAMP_SLOT, item);
         }
@@ -148,21 +175,26 @@ public class Menu implements InventoryHolder {
     public void handleClick(ItemStack clickedItem, int slot) {
         switch (type) {
             case EDIT -> {
-                final var location = clickedItem.getItemMeta().getPersistentDataContainer()
-                        .get(locationKey, DataType.LOCATION);
-                if (location == null) {
+                final var position = clickedItem.getItemMeta().getPersistentDataContainer()
+                        .get(locationKey, DataType.BLOCK_POS);
+                if (position == null) {
                     final var currentPage = inventory.getItem(INFO_SLOT).getItemMeta().getPersistentDataContainer()
                             .get(pageKey, PersistentDataType.INTEGER);
                     createEditPage(currentPage + 1);
                     return;
                 }
-                player.teleport(location);
+                player.teleport(position.toLocation());
                 inventory.close();
             }
             case TELEPORT -> {
-                final var location = clickedItem.getItemMeta().getPersistentDataContainer()
-                        .get(locationKey, DataType.LOCATION);
-                if (location == null) {
+                final var position = clickedItem.getItemMeta().getPersistentDataContainer()
+                        .get(locationKey, DataType.BLOCK_POS);
+                if (position == null) {
+                    if (slot == SORT_SLOT) {
+                        sortByDistance = !sortByDistance;
+                        createTeleportPage(0);
+                        return;
+                    }
                     final var currentPage = inventory.getItem(INFO_SLOT).getItemMeta().getPersistentDataContainer()
                             .get(pageKey, PersistentDataType.INTEGER);
                     createTeleportPage(currentPage + 1);
@@ -190,7 +222,7 @@ public class Menu implements InventoryHolder {
                 plugin.getLogger().info(String.format("[TELEPORT] Player %s (%s) initiated %s teleport via GUI",
                         player.getName(), player.getUniqueId(), destinationType));
 
-                new TeleportTask(plugin, player, teleportType, location);
+                new TeleportTask(plugin, player, teleportType, position.toLocation());
                 inventory.close();
             }
             default -> {
@@ -0,0 +1,120 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Gives every player a small, dense index, so players can be kept as ints
+ * and sets of players as bitmaps. Indexes are never reused, and are saved in
+ * order so they stay the same across restarts. Safe to use from any thread.
+ */
+public class PlayerIndex {
+
+    public static final String FILENAME = "players.dat";
+    private static final int RECORD_SIZE = 16;
+
+    private static final PlayerIndex GLOBAL = new PlayerIndex();
+
+    private final Object2IntOpenHashMap<UUID> indexes;
+    private final ArrayList<UUID> players;
+    private int saved;
+
+    public PlayerIndex() {
+        this.indexes = new Object2IntOpenHashMap<>();
+        this.indexes.defaultReturnValue(-1);
+        this.players = new ArrayList<>();
+    }
+
+    /**
+     * @return the table shared by everything in memory
+     */
+    public static PlayerIndex global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the index of the player, assigning the next one if they have
+     *         none yet
+     */
+    public synchronized int intern(UUID uniqueId) {
+        var index = indexes.getInt(uniqueId);
+        if (index == -1) {
+            index = players.size();
+            indexes.put(uniqueId, index);
+            players.add(uniqueId);
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the player, or {@code -1} if they have none
+     */
+    public synchronized int indexOf(UUID uniqueId) {
+        return indexes.getInt(uniqueId);
+    }
+
+    public synchronized UUID get(int index) {
+        return players.get(index);
+    }
+
+    public synchronized int size() {
+        return players.size();
+    }
+
+    /**
+     * Reads the indexes saved by {@link #save(File)}. Does nothing once any
+     * player has an index, since those were read already or would clash.
+     */
+    public synchronized void load(File file) throws IOException {
+        if (!players.isEmpty() || !file.exists()) {
+            return;
+        }
+        // A record cut short by a crash is dropped, so appends line up again
+        final var count = file.length() / RECORD_SIZE;
+        try (final var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (var i = 0L; i < count; i++) {
+                intern(new UUID(in.readLong(), in.readLong()));
+            }
+        }
+        if (file.length() != count * RECORD_SIZE) {
+            try (final var randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(count * RECORD_SIZE);
+            }
+        }
+        saved = players.size();
+    }
+
+    /**
+     * Appends the players that got an index since the last save. Must run on
+     * the I/O executor.
+     */
+    public void save(File file) throws IOException {
+        final ArrayList<UUID> added;
+        synchronized (this) {
+            added = new ArrayList<>(players.subList(saved, players.size()));
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        try (final var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            for (final var uniqueId : added) {
+                out.writeLong(uniqueId.getMostSignificantBits());
+                out.writeLong(uniqueId.getLeastSignificantBits());
+            }
+        }
+        synchronized (this) {
+            saved += added.size();
+        }
+    }
+}
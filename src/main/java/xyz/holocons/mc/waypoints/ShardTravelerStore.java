@@ -0,0 +1,139 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One file per traveler, in a {@link StorageFormat}.
+ */
+public class ShardTravelerStore implements TravelerStore {
+
+    private final File directory;
+    private final StorageFormat format;
+    private final Logger logger;
+
+    public ShardTravelerStore(File directory, StorageFormat format, Logger logger) {
+        this.directory = directory;
+        this.format = format;
+        this.logger = logger;
+    }
+
+    /**
+     * Shards are bucketed by the first two hex digits of the UUID so that no
+     * single directory grows with the whole player base.
+     */
+    public static File getFile(File directory, UUID uniqueId, StorageFormat format) {
+        final var name = uniqueId.toString();
+        return format.getFile(new File(directory, name.substring(0, 2)), name);
+    }
+
+    public static ArrayList<File> listFiles(File directory, StorageFormat format) throws IOException {
+        final var files = new ArrayList<File>();
+        if (!directory.exists()) {
+            return files;
+        }
+        try (final var paths = Files.walk(directory.toPath(), 2)) {
+            for (final var path : paths.toList()) {
+                final var file = path.toFile();
+                if (file.isFile() && file.getName().endsWith(format.getExtension())) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return the UUID a shard belongs to, or {@code null} for a stray file
+     */
+    public static UUID getUniqueId(File file, StorageFormat format) {
+        final var name = file.getName();
+        try {
+            return UUID.fromString(name.substring(0, name.length() - format.getExtension().length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Traveler read(UUID uniqueId) throws IOException {
+        final var file = getFile(directory, uniqueId, format);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return format.readTraveler(file);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unreadable traveler file " + file.getName(), e);
+            Files.move(file.toPath(), new File(file.getParentFile(), file.getName() + ".corrupt").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        }
+    }
+
+    @Override
+    public void write(UUID uniqueId, Traveler traveler) throws IOException {
+        FileStorage.writeAtomically(getFile(directory, uniqueId, format),
+                file -> format.writeTraveler(file, traveler));
+    }
+
+    @Override
+    public void delete(UUID uniqueId) throws IOException {
+        Files.deleteIfExists(getFile(directory, uniqueId, format).toPath());
+    }
+
+    @Override
+    public void updateAll(Consumer<Traveler> action) throws IOException {
+        for (final var file : listFiles(directory, format)) {
+            final var traveler = format.readTraveler(file);
+            if (traveler == null) {
+                continue;
+            }
+            action.accept(traveler);
+            if (traveler.isDirty() && traveler.isEmpty()) {
+                Files.deleteIfExists(file.toPath());
+            } else if (traveler.isDirty()) {
+                FileStorage.writeAtomically(file, tempFile -> format.writeTraveler(tempFile, traveler));
+            }
+        }
+    }
+
+    @Override
+    public void forEach(TravelerVisitor visitor) throws IOException {
+        for (final var file : listFiles(directory, format)) {
+            final var uniqueId = getUniqueId(file, format);
+            if (uniqueId == null) {
+                continue;
+            }
+            final var traveler = format.readTraveler(file);
+            if (traveler != null) {
+                visitor.visit(uniqueId, traveler);
+            }
+        }
+    }
+
+    /**
+     * Removes every shard, once they have been copied to another store.
+     */
+    public void delete() throws IOException {
+        for (final var file : listFiles(directory, format)) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Every shard is already synced by writeAtomically
+    }
+
+    @Override
+    public void close() {
+    }
+}
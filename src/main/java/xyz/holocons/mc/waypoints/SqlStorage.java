@@ -0,0 +1,524 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
+/**
+ * Keeps all data in an embedded SQLite database, using the driver bundled
+ * with the server. Waypoints and travelers are upserted and deleted one row
+ * at a time in batches, so a save only touches the rows that changed.
+ */
+public class SqlStorage implements Storage {
+
+    public static final String FILENAME = "waypoints.db";
+
+    private static final String[] SCHEMA = {
+            """
+                    CREATE TABLE IF NOT EXISTS waypoints (
+                        id INTEGER PRIMARY KEY,
+                        location BLOB NOT NULL,
+                        contributors BLOB NOT NULL,
+                        active INTEGER NOT NULL,
+                        banner_material TEXT,
+                        banner_patterns TEXT,
+                        banner_name TEXT
+                    )""",
+            """
+                    CREATE TABLE IF NOT EXISTS travelers (
+                        uuid BLOB PRIMARY KEY,
+                        charges INTEGER NOT NULL,
+                        tokens INTEGER NOT NULL,
+                        home BLOB,
+                        camp BLOB,
+                        waypoints BLOB NOT NULL
+                    ) WITHOUT ROWID""",
+            """
+                    CREATE TABLE IF NOT EXISTS camp_banners (
+                        location BLOB PRIMARY KEY,
+                        owner BLOB NOT NULL
+                    ) WITHOUT ROWID""",
+            """
+                    CREATE TABLE IF NOT EXISTS banner_designs (
+                        player BLOB PRIMARY KEY,
+                        material TEXT NOT NULL,
+                        patterns TEXT NOT NULL
+                    ) WITHOUT ROWID""",
+    };
+
+    private final File file;
+    private final Logger logger;
+    private final Connection connection;
+    private final PreparedStatement upsertWaypoint;
+    private final PreparedStatement deleteWaypoint;
+    private final PreparedStatement selectTraveler;
+    private final PreparedStatement upsertTraveler;
+    private final PreparedStatement deleteTraveler;
+    private final SqlTravelerStore travelerStore;
+    private int pendingTravelers;
+
+    public SqlStorage(File file, Logger logger) throws IOException {
+        this.file = file;
+        this.logger = logger;
+        this.travelerStore = new SqlTravelerStore();
+        try {
+            Class.forName("org.sqlite.JDBC");
+            file.getParentFile().mkdirs();
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+            try (final var statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                for (final var sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+                addBannerColumns(statement);
+            }
+            connection.setAutoCommit(false);
+            upsertWaypoint = connection.prepareStatement("""
+                    INSERT INTO waypoints (id, location, contributors, active, banner_material, banner_patterns,
+                        banner_name) VALUES (?, ?, ?, ?, ?, ?, ?)
+                    ON CONFLICT (id) DO UPDATE SET location = excluded.location,
+                        contributors = excluded.contributors, active = excluded.active,
+                        banner_material = excluded.banner_material, banner_patterns = excluded.banner_patterns,
+                        banner_name = excluded.banner_name""");
+            deleteWaypoint = connection.prepareStatement("DELETE FROM waypoints WHERE id = ?");
+            selectTraveler = connection.prepareStatement(
+                    "SELECT charges, tokens, home, camp, waypoints FROM travelers WHERE uuid = ?");
+            upsertTraveler = connection.prepareStatement("""
+                    INSERT INTO travelers (uuid, charges, tokens, home, camp, waypoints) VALUES (?, ?, ?, ?, ?, ?)
+                    ON CONFLICT (uuid) DO UPDATE SET charges = excluded.charges, tokens = excluded.tokens,
+                        home = excluded.home, camp = excluded.camp, waypoints = excluded.waypoints""");
+            deleteTraveler = connection.prepareStatement("DELETE FROM travelers WHERE uuid = ?");
+        } catch (ClassNotFoundException e) {
+            throw new IOException("SQLite driver not available", e);
+        } catch (SQLException e) {
+            throw new IOException("Failed to open " + file.getName(), e);
+        }
+    }
+
+    @Override
+    public HashMap<Integer, Waypoint> loadWaypoints() throws IOException {
+        final var waypoints = new HashMap<Integer, Waypoint>();
+        try (final var statement = connection.createStatement();
+                final var resultSet = statement.executeQuery(
+                        """
+                                SELECT id, location, contributors, active, banner_material, banner_patterns,
+                                    banner_name FROM waypoints""")) {
+            while (resultSet.next()) {
+                final var waypoint = new Waypoint(resultSet.getInt(1), toLocation(resultSet.getBytes(2)),
+                        toUUIDs(resultSet.getBytes(3)), resultSet.getBoolean(4), toBannerSnapshot(resultSet));
+                waypoints.put(waypoint.getId(), waypoint);
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+        return waypoints;
+    }
+
+    @Override
+    public void loadCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        try (final var statement = connection.createStatement()) {
+            try (final var resultSet = statement.executeQuery("SELECT location, owner FROM camp_banners")) {
+                while (resultSet.next()) {
+                    campBanners.put(toLocation(resultSet.getBytes(1)), toUUID(resultSet.getBytes(2)));
+                }
+            }
+            try (final var resultSet = statement.executeQuery(
+                    "SELECT player, material, patterns FROM banner_designs")) {
+                while (resultSet.next()) {
+                    bannerDesigns.put(toUUID(resultSet.getBytes(1)),
+                            toBannerDesign(resultSet.getString(2), resultSet.getString(3)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public TravelerStore getTravelerStore() {
+        return travelerStore;
+    }
+
+    @Override
+    public void save(DataSnapshot snapshot) throws IOException {
+        try {
+            if (snapshot.waypoints() != null) {
+                for (final var id : snapshot.changedWaypoints()) {
+                    final var waypoint = snapshot.waypoints().get(id);
+                    if (waypoint == null) {
+                        continue;
+                    }
+                    upsertWaypoint.setInt(1, id);
+                    upsertWaypoint.setBytes(2, DataType.BLOCK_POS.toPrimitive(waypoint.getPosition(), null));
+                    upsertWaypoint.setBytes(3, fromUUIDs(waypoint.getContributors()));
+                    upsertWaypoint.setBoolean(4, waypoint.isActive());
+                    setBannerSnapshot(upsertWaypoint, 5, waypoint.getBanner());
+                    upsertWaypoint.addBatch();
+                }
+                for (final var id : snapshot.removedWaypoints()) {
+                    deleteWaypoint.setInt(1, id);
+                    deleteWaypoint.addBatch();
+                }
+                upsertWaypoint.executeBatch();
+                deleteWaypoint.executeBatch();
+            }
+            if (snapshot.travelers() != null) {
+                for (final var entry : snapshot.travelers().entrySet()) {
+                    if (entry.getValue().isEmpty()) {
+                        travelerStore.delete(entry.getKey());
+                    } else {
+                        travelerStore.write(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            if (snapshot.campBanners() != null) {
+                saveCampBannerData(snapshot.campBanners(), snapshot.bannerDesigns());
+            }
+            travelerStore.flush();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e);
+        } catch (IOException | RuntimeException e) {
+            // Otherwise the waypoint changes stay pending and the next commit writes half a snapshot
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Camp banners only track whether anything changed, so both tables are
+     * replaced. They hold one row per camp and per registered design.
+     */
+    private void saveCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws SQLException {
+        try (final var statement = connection.createStatement()) {
+            statement.execute("DELETE FROM camp_banners");
+            statement.execute("DELETE FROM banner_designs");
+        }
+        try (final var insert = connection.prepareStatement(
+                "INSERT INTO camp_banners (location, owner) VALUES (?, ?)")) {
+            for (final var entry : campBanners.entrySet()) {
+                insert.setBytes(1, DataType.BLOCK_POS.toPrimitive(entry.getKey(), null));
+                insert.setBytes(2, DataType.UUID.toPrimitive(entry.getValue(), null));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        try (final var insert = connection.prepareStatement(
+                "INSERT INTO banner_designs (player, material, patterns) VALUES (?, ?, ?)")) {
+            for (final var entry : bannerDesigns.entrySet()) {
+                final var design = entry.getValue();
+                insert.setBytes(1, DataType.UUID.toPrimitive(entry.getKey(), null));
+                insert.setString(2, design.getMaterial().name());
+                insert.setString(3, fromPatterns(design.getPatterns()));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Databases created before waypoints kept a snapshot of their banner lack
+     * its columns.
+     */
+    private static void addBannerColumns(Statement statement) throws SQLException {
+        try (final var resultSet = statement.executeQuery("PRAGMA table_info(waypoints)")) {
+            while (resultSet.next()) {
+                if (resultSet.getString("name").equals("banner_material")) {
+                    return;
+                }
+            }
+        }
+        statement.execute("ALTER TABLE waypoints ADD COLUMN banner_material TEXT");
+        statement.execute("ALTER TABLE waypoints ADD COLUMN banner_patterns TEXT");
+        statement.execute("ALTER TABLE waypoints ADD COLUMN banner_name TEXT");
+    }
+
+    @Override
+    public boolean hasData() throws IOException {
+        try (final var statement = connection.createStatement();
+                final var resultSet = statement.executeQuery("""
+                        SELECT EXISTS (SELECT 1 FROM waypoints) OR EXISTS (SELECT 1 FROM travelers)
+                            OR EXISTS (SELECT 1 FROM camp_banners)""")) {
+            return resultSet.next() && resultSet.getBoolean(1);
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<File> getFiles() {
+        return List.of(file, new File(file.getParentFile(), file.getName() + "-wal"),
+                new File(file.getParentFile(), file.getName() + "-shm"));
+    }
+
+    @Override
+    public void delete() throws IOException {
+        close();
+        for (final var databaseFile : getFiles()) {
+            Files.deleteIfExists(databaseFile.toPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!connection.isClosed()) {
+                travelerStore.flush();
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Drops everything written since the last commit, including batched
+     * statements that have not run yet.
+     */
+    private void rollback() {
+        try {
+            upsertWaypoint.clearBatch();
+            deleteWaypoint.clearBatch();
+            upsertTraveler.clearBatch();
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.warning("Failed to roll back: " + e.getMessage());
+        }
+        pendingTravelers = 0;
+    }
+
+    private class SqlTravelerStore implements TravelerStore {
+
+        @Override
+        public Traveler read(UUID uniqueId) throws IOException {
+            try {
+                if (pendingTravelers > 0) {
+                    upsertTraveler.executeBatch();
+                    pendingTravelers = 0;
+                }
+                selectTraveler.setBytes(1, DataType.UUID.toPrimitive(uniqueId, null));
+                try (final var resultSet = selectTraveler.executeQuery()) {
+                    return resultSet.next() ? toTraveler(resultSet) : null;
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void write(UUID uniqueId, Traveler traveler) throws IOException {
+            try {
+                upsertTraveler.setBytes(1, DataType.UUID.toPrimitive(uniqueId, null));
+                upsertTraveler.setInt(2, traveler.getCharges());
+                upsertTraveler.setInt(3, traveler.getTokens());
+                setLocation(upsertTraveler, 4, traveler.getHome());
+                setLocation(upsertTraveler, 5, traveler.getCamp());
+                upsertTraveler.setBytes(6, traveler.getWaypoints().toByteArray());
+                upsertTraveler.addBatch();
+                pendingTravelers++;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void delete(UUID uniqueId) throws IOException {
+            try {
+                // An upsert still in the batch would bring the row back
+                if (pendingTravelers > 0) {
+                    upsertTraveler.executeBatch();
+                    pendingTravelers = 0;
+                }
+                deleteTraveler.setBytes(1, DataType.UUID.toPrimitive(uniqueId, null));
+                deleteTraveler.executeUpdate();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void updateAll(Consumer<Traveler> action) throws IOException {
+            final var updated = new HashMap<UUID, Traveler>();
+            forEach((uniqueId, traveler) -> {
+                action.accept(traveler);
+                if (traveler.isDirty()) {
+                    updated.put(uniqueId, traveler);
+                }
+            });
+            for (final var entry : updated.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    delete(entry.getKey());
+                } else {
+                    write(entry.getKey(), entry.getValue());
+                }
+            }
+            flush();
+        }
+
+        @Override
+        public void forEach(TravelerVisitor visitor) throws IOException {
+            try (final var statement = connection.createStatement();
+                    final var resultSet = statement.executeQuery(
+                            "SELECT charges, tokens, home, camp, waypoints, uuid FROM travelers")) {
+                while (resultSet.next()) {
+                    visitor.visit(toUUID(resultSet.getBytes(6)), toTraveler(resultSet));
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Runs the batched upserts and commits everything written since the
+         * last commit.
+         */
+        @Override
+        public void flush() throws IOException {
+            try {
+                if (pendingTravelers > 0) {
+                    upsertTraveler.executeBatch();
+                    pendingTravelers = 0;
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                rollback();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Closed with the storage
+        }
+    }
+
+    private static Traveler toTraveler(ResultSet resultSet) throws SQLException {
+        return new Traveler(resultSet.getInt(1), resultSet.getInt(2), toLocation(resultSet.getBytes(3)),
+                toLocation(resultSet.getBytes(4)), BitSet.valueOf(resultSet.getBytes(5)));
+    }
+
+    private static void setLocation(PreparedStatement statement, int index, BlockPos position)
+            throws SQLException {
+        if (position == null) {
+            statement.setNull(index, Types.BLOB);
+        } else {
+            statement.setBytes(index, DataType.BLOCK_POS.toPrimitive(position, null));
+        }
+    }
+
+    private static BlockPos toLocation(byte[] bytes) {
+        return bytes != null ? DataType.BLOCK_POS.fromPrimitive(bytes, null) : null;
+    }
+
+    private static UUID toUUID(byte[] bytes) {
+        return DataType.UUID.fromPrimitive(bytes, null);
+    }
+
+    private static byte[] fromUUIDs(ArrayList<UUID> uniqueIds) {
+        final var nonNull = uniqueIds.stream().filter(uniqueId -> uniqueId != null).toList();
+        final var buffer = ByteBuffer.allocate(nonNull.size() * BinaryWriter.UUID_BYTES);
+        for (final var uniqueId : nonNull) {
+            buffer.putLong(uniqueId.getMostSignificantBits());
+            buffer.putLong(uniqueId.getLeastSignificantBits());
+        }
+        return buffer.array();
+    }
+
+    private static ArrayList<UUID> toUUIDs(byte[] bytes) {
+        final var buffer = ByteBuffer.wrap(bytes);
+        final var uniqueIds = new ArrayList<UUID>(bytes.length / BinaryWriter.UUID_BYTES);
+        while (buffer.remaining() >= BinaryWriter.UUID_BYTES) {
+            uniqueIds.add(new UUID(buffer.getLong(), buffer.getLong()));
+        }
+        return uniqueIds;
+    }
+
+    private static void setBannerSnapshot(PreparedStatement statement, int index, Waypoint.BannerSnapshot banner)
+            throws SQLException {
+        if (banner == null) {
+            statement.setNull(index, Types.VARCHAR);
+            statement.setNull(index + 1, Types.VARCHAR);
+            statement.setNull(index + 2, Types.VARCHAR);
+            return;
+        }
+        statement.setString(index, banner.design().getMaterial().name());
+        statement.setString(index + 1, fromPatterns(banner.design().getPatterns()));
+        if (banner.customName() != null) {
+            statement.setString(index + 2, GsonComponentSerializer.gson().serialize(banner.customName()));
+        } else {
+            statement.setNull(index + 2, Types.VARCHAR);
+        }
+    }
+
+    private static Waypoint.BannerSnapshot toBannerSnapshot(ResultSet resultSet) throws SQLException {
+        final var material = resultSet.getString("banner_material");
+        if (material == null) {
+            return null;
+        }
+        final var customName = resultSet.getString("banner_name");
+        return new Waypoint.BannerSnapshot(toBannerDesign(material, resultSet.getString("banner_patterns")),
+                customName != null ? GsonComponentSerializer.gson().deserialize(customName) : null);
+    }
+
+    private static String fromPatterns(Pattern[] patterns) {
+        final var names = new ArrayList<String>(patterns.length);
+        for (final var pattern : patterns) {
+            names.add(pattern.getColor().name() + ':' + pattern.getPattern().toString());
+        }
+        return String.join(",", names);
+    }
+
+    private static CampBannerMap.BannerDesign toBannerDesign(String materialName, String patternNames) {
+        Material material;
+        try {
+            material = Material.valueOf(materialName);
+        } catch (IllegalArgumentException e) {
+            material = Material.WHITE_BANNER; // fallback
+        }
+        final var patterns = new ArrayList<Pattern>();
+        if (patternNames != null && !patternNames.isEmpty()) {
+            for (final var entry : patternNames.split(",")) {
+                final var parts = entry.split(":", 2);
+                DyeColor color;
+                try {
+                    color = DyeColor.valueOf(parts[0]);
+                } catch (IllegalArgumentException e) {
+                    color = DyeColor.WHITE; // fallback
+                }
+                PatternType patternType;
+                try {
+                    patternType = PatternType.valueOf(parts.length > 1 ? parts[1] : "");
+                } catch (IllegalArgumentException e) {
+                    patternType = PatternType.STRIPE_MIDDLE; // fallback
+                }
+                patterns.add(new Pattern(color, patternType));
+            }
+        }
+        return new CampBannerMap.BannerDesign(material, patterns.toArray(Pattern[]::new));
+    }
+}
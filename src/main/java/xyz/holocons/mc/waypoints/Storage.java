@@ -0,0 +1,50 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Where the plugin's data is persisted. Implementations are not thread-safe
+ * and must only be used on the plugin's I/O executor.
+ */
+public interface Storage {
+
+    HashMap<Integer, Waypoint> loadWaypoints() throws IOException;
+
+    void loadCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException;
+
+    /**
+     * Travelers are read and upserted one at a time, so they are exposed
+     * separately from the rest of the data.
+     */
+    TravelerStore getTravelerStore();
+
+    /**
+     * Writes every section of {@code snapshot} that is not {@code null}. Only
+     * {@link DataSnapshot#changedWaypoints()} and
+     * {@link DataSnapshot#removedWaypoints()} need to be written if the
+     * storage can update single waypoints.
+     */
+    void save(DataSnapshot snapshot) throws IOException;
+
+    boolean hasData() throws IOException;
+
+    /**
+     * @return the files and directories the data is kept in, whether they
+     *         exist or not
+     */
+    List<File> getFiles();
+
+    /**
+     * Removes all stored data, once it has been copied to another storage.
+     * The storage is closed afterwards.
+     */
+    void delete() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,168 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The on-disk encodings the plugin can read and write. Each data file is
+ * named by a basename plus the extension of the format it was written in.
+ */
+public enum StorageFormat {
+
+    JSON(".json") {
+        @Override
+        public HashMap<Integer, Waypoint> readWaypointMap(File file) throws IOException {
+            try (final var reader = new GsonReader(file)) {
+                return reader.readWaypointMap();
+            }
+        }
+
+        @Override
+        public void writeWaypointMap(OutputStream outputStream, HashMap<Integer, Waypoint> waypoints) throws IOException {
+            try (final var writer = new GsonWriter(outputStream)) {
+                writer.writeWaypointMap(waypoints);
+            }
+        }
+
+        @Override
+        public Traveler readTraveler(File file) throws IOException {
+            try (final var reader = new GsonReader(file)) {
+                return reader.readTraveler();
+            }
+        }
+
+        @Override
+        public void writeTraveler(OutputStream outputStream, Traveler traveler) throws IOException {
+            try (final var writer = new GsonWriter(outputStream)) {
+                writer.writeTraveler(traveler);
+            }
+        }
+
+        @Override
+        public void readCampBannerData(File file, Map<BlockPos, UUID> campBanners,
+                Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+            try (final var reader = new GsonReader(file)) {
+                reader.readCampBannerData(campBanners, bannerDesigns);
+            }
+        }
+
+        @Override
+        public void writeCampBannerData(OutputStream outputStream, Map<BlockPos, UUID> campBanners,
+                Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+            try (final var writer = new GsonWriter(outputStream)) {
+                writer.writeCampBannerData(campBanners, bannerDesigns);
+            }
+        }
+    },
+
+    BINARY(".dat") {
+        @Override
+        public HashMap<Integer, Waypoint> readWaypointMap(File file) throws IOException {
+            try (final var reader = new BinaryReader(file)) {
+                return reader.readWaypointMap();
+            }
+        }
+
+        @Override
+        public void writeWaypointMap(OutputStream outputStream, HashMap<Integer, Waypoint> waypoints) throws IOException {
+            try (final var writer = new BinaryWriter(outputStream)) {
+                writer.writeWaypointMap(waypoints);
+            }
+        }
+
+        @Override
+        public Traveler readTraveler(File file) throws IOException {
+            try (final var reader = new BinaryReader(file)) {
+                return reader.readTravelerFile();
+            }
+        }
+
+        @Override
+        public void writeTraveler(OutputStream outputStream, Traveler traveler) throws IOException {
+            try (final var writer = new BinaryWriter(outputStream)) {
+                writer.writeTravelerFile(traveler);
+            }
+        }
+
+        @Override
+        public void readCampBannerData(File file, Map<BlockPos, UUID> campBanners,
+                Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+            try (final var reader = new BinaryReader(file)) {
+                reader.readCampBannerData(campBanners, bannerDesigns);
+            }
+        }
+
+        @Override
+        public void writeCampBannerData(OutputStream outputStream, Map<BlockPos, UUID> campBanners,
+                Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+            try (final var writer = new BinaryWriter(outputStream)) {
+                writer.writeCampBannerData(campBanners, bannerDesigns);
+            }
+        }
+    };
+
+    private final String extension;
+
+    StorageFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public File getFile(File folder, String basename) {
+        return new File(folder, basename + extension);
+    }
+
+    public StorageFormat other() {
+        return this == JSON ? BINARY : JSON;
+    }
+
+    public static StorageFormat fromString(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public abstract HashMap<Integer, Waypoint> readWaypointMap(File file) throws IOException;
+
+    public abstract void writeWaypointMap(OutputStream outputStream, HashMap<Integer, Waypoint> waypoints)
+            throws IOException;
+
+    public void writeWaypointMap(File file, HashMap<Integer, Waypoint> waypoints) throws IOException {
+        try (final var outputStream = new FileOutputStream(file)) {
+            writeWaypointMap(outputStream, waypoints);
+        }
+    }
+
+    public abstract Traveler readTraveler(File file) throws IOException;
+
+    public abstract void writeTraveler(OutputStream outputStream, Traveler traveler) throws IOException;
+
+    public void writeTraveler(File file, Traveler traveler) throws IOException {
+        try (final var outputStream = new FileOutputStream(file)) {
+            writeTraveler(outputStream, traveler);
+        }
+    }
+
+    public abstract void readCampBannerData(File file, Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException;
+
+    public abstract void writeCampBannerData(OutputStream outputStream, Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException;
+
+    public void writeCampBannerData(File file, Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) throws IOException {
+        try (final var outputStream = new FileOutputStream(file)) {
+            writeCampBannerData(outputStream, campBanners, bannerDesigns);
+        }
+    }
+}
@@ -18,7 +18,6 @@ public class TeleportTask extends BukkitRunnable {
     }
 
     private final Player player;
-    private final Traveler traveler;
     private final int cost;
     private final Location destination;
     private final double initialHealth;
@@ -35,7 +34,6 @@ public class TeleportTask extends BukkitRunnable {
         final var taskId = runTaskTimer(plugin, period, period).getTaskId();
         this.plugin = plugin;
         this.player = player;
-        this.traveler = plugin.getTravelerMap().getOrCreateTraveler(player);
         this.cost = switch (type) {
             case CAMP -> 0;  // Free camp teleport
             case HOME -> 0;  // Free home teleport
@@ -101,9 +99,12 @@ public class TeleportTask extends BukkitRunnable {
         bossBar.setProgress(newProgress);
         if (newProgress == 1.0) {
             cancel();
-            final var charges = traveler.getCharges();
+            final var travelerMap = plugin.getTravelerMap();
+            final var charges = travelerMap.getTraveler(player).getCharges();
             if (charges >= cost) {
-                traveler.setCharges(charges - cost);
+                if (cost > 0) {
+                    travelerMap.getOrCreateTraveler(player).setCharges(charges - cost);
+                }
                 destination.setDirection(player.getLocation().getDirection());
 
                 // Log successful teleportation
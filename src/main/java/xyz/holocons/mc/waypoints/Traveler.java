@@ -1,18 +1,82 @@
 package xyz.holocons.mc.waypoints;
 
 import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+public class Traveler implements TravelerView {
+
+    public static final int CHARGES = 1;
+    public static final int TOKENS = 1 << 1;
+    public static final int HOME = 1 << 2;
+    public static final int CAMP = 1 << 3;
+    public static final int WAYPOINTS = 1 << 4;
+
+    /**
+     * Stands in for every player who has no stored traveler, so looking them
+     * up allocates nothing. It cannot be changed; use
+     * {@link TravelerMap#getOrCreateTraveler(java.util.UUID)} to change a
+     * player.
+     */
+    public static final Traveler EMPTY = new Traveler(0, 0, null, null, null) {
+
+        @Override
+        public BitSet getWaypoints() {
+            return new BitSet();
+        }
+
+        @Override
+        public void registerWaypoint(Waypoint waypoint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setCharges(int charges) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addCharges(int amount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTokens(int tokens) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setHome(BlockPos home) {
+            throw new UnsupportedOperationException();
+        }
 
-import org.bukkit.Location;
+        @Override
+        public void setCamp(BlockPos camp) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setWaypoints(BitSet waypoints) {
+            throw new UnsupportedOperationException();
+        }
 
-public class Traveler {
+        @Override
+        public void setChangeListener(IntConsumer changeListener) {
+        }
+
+        @Override
+        public void markDirty() {
+        }
+    };
 
     private int charges;
     private int tokens;
-    private Location home;
-    private Location camp;
+    private BlockPos home;
+    private BlockPos camp;
     private BitSet waypoints;
+    private boolean dirty;
+    private IntConsumer changeListener;
 
-    public Traveler(int charges, int tokens, Location home, Location camp, BitSet waypoints) {
+    public Traveler(int charges, int tokens, BlockPos home, BlockPos camp, BitSet waypoints) {
         this.charges = charges;
         this.tokens = tokens;
         this.home = home;
@@ -20,26 +84,57 @@ public class Traveler {
         this.waypoints = waypoints != null ? waypoints : new BitSet();
     }
 
+    public Traveler copy() {
+        return new Traveler(charges, tokens, home, camp, (BitSet) waypoints.clone());
+    }
+
+    /**
+     * Resolves the worlds of home and camp read from storage, without
+     * counting as a change.
+     */
+    void resolveWorlds() {
+        if (home != null) {
+            home = home.resolve();
+        }
+        if (camp != null) {
+            camp = camp.resolve();
+        }
+    }
+
+    @Override
     public int getCharges() {
         return charges;
     }
 
+    @Override
     public int getTokens() {
         return tokens;
     }
 
-    public Location getHome() {
+    @Override
+    public BlockPos getHome() {
         return home;
     }
 
-    public Location getCamp() {
+    @Override
+    public BlockPos getCamp() {
         return camp;
     }
 
+    @Override
     public BitSet getWaypoints() {
         return waypoints;
     }
 
+    /**
+     * @return whether nothing is set, so there is no need to store it
+     */
+    @Override
+    public boolean isEmpty() {
+        return charges == 0 && tokens == 0 && home == null && camp == null && waypoints.isEmpty();
+    }
+
+    @Override
     public boolean hasWaypoint(Waypoint waypoint) {
         return waypoint != null && waypoints.get(waypoint.getId());
     }
@@ -49,34 +144,79 @@ public class Traveler {
             return;
         }
         waypoints.set(waypoint.getId());
+        changed(WAYPOINTS);
     }
 
     public void unregisterWaypoint(Waypoint waypoint) {
         if (waypoint == null) {
             return;
         }
-        waypoints.clear(waypoint.getId());
+        unregisterWaypoint(waypoint.getId());
+    }
+
+    public void unregisterWaypoint(int id) {
+        if (!waypoints.get(id)) {
+            return;
+        }
+        waypoints.clear(id);
+        changed(WAYPOINTS);
     }
 
     public void setCharges(int charges) {
         this.charges = charges;
+        changed(CHARGES);
     }
 
     public void addCharges(int amount) {
         if (amount <= 0)
             return;
         this.charges += amount;
+        changed(CHARGES);
     }
 
     public void setTokens(int tokens) {
         this.tokens = tokens;
+        changed(TOKENS);
     }
 
-    public void setHome(Location home) {
+    public void setHome(BlockPos home) {
         this.home = home;
+        changed(HOME);
     }
 
-    public void setCamp(Location camp) {
+    public void setCamp(BlockPos camp) {
         this.camp = camp;
+        changed(CAMP);
+    }
+
+    public void setWaypoints(BitSet waypoints) {
+        this.waypoints = waypoints != null ? waypoints : new BitSet();
+        changed(WAYPOINTS);
+    }
+
+    /**
+     * Called with the changed fields whenever one of the setters is used.
+     */
+    public void setChangeListener(IntConsumer changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed(int fields) {
+        dirty = true;
+        if (changeListener != null) {
+            changeListener.accept(fields);
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void markDirty() {
+        dirty = true;
+    }
+
+    public void markClean() {
+        dirty = false;
     }
 }
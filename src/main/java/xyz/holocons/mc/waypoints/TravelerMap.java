@@ -1,77 +1,458 @@
 package xyz.holocons.mc.waypoints;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+
 public class TravelerMap {
 
+    /**
+     * Legacy single-file storage, migrated to the traveler store on load.
+     */
     public static final String FILENAME = "traveler.json";
+    public static final String DIRECTORY = "travelers";
 
-    private final HashMap<UUID, Traveler> travelers;
-    private final HashMap<UUID, BukkitRunnable> tasks;
+    private final WaypointsPlugin plugin;
+    private final PlayerIndex players;
+    // Keyed by player index. Only the server thread changes travelers, while
+    // prefetches fill prefetched on the I/O executor.
+    private final Int2ObjectMap<Traveler> travelers;
+    private final Int2ObjectMap<Traveler> prefetched;
+    private final Int2ObjectOpenHashMap<BukkitRunnable> tasks;
+    // Travelers getTraveler started reading, so it starts each read once
+    private final IntSet loading;
+    // Changes to every stored traveler still queued on the I/O executor.
+    // Reads run before them see the old records, so they are applied there.
+    private final List<Consumer<Traveler>> pendingUpdates;
+    // Players whose stored traveler may differ from the newest backup, or
+    // null if that is not known and the next backup must read them all
+    private HashSet<UUID> backupChanges;
+    // Offline travelers by when they were last used, least recent first
+    private final Int2LongLinkedOpenHashMap lastUsed;
+    private IntOpenHashSet stalePrefetches;
+    private CompletableFuture<Void> writeback;
+    private boolean evictScheduled;
+    private WaypointRegistrations registrations;
 
-    public TravelerMap() {
-        this.travelers = new HashMap<>();
-        this.tasks = new HashMap<>();
+    public TravelerMap(WaypointsPlugin plugin) {
+        this.plugin = plugin;
+        this.players = PlayerIndex.global();
+        this.travelers = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<>());
+        this.prefetched = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<>());
+        this.tasks = new Int2ObjectOpenHashMap<>();
+        this.loading = IntSets.synchronize(new IntOpenHashSet());
+        this.pendingUpdates = Collections.synchronizedList(new ArrayList<>());
+        this.lastUsed = new Int2LongLinkedOpenHashMap();
+        this.stalePrefetches = new IntOpenHashSet();
+        this.registrations = new WaypointRegistrations();
     }
 
-    public void loadTravelers(WaypointsPlugin plugin) throws IOException {
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+    /**
+     * Replaces the resident travelers with ones read on the I/O executor,
+     * e.g. those of the online players and those the journal changes. Online
+     * players not among them take a prefetch, or have one started.
+     */
+    public void loadTravelers(Map<UUID, Traveler> loaded) {
+        travelers.clear();
+        lastUsed.clear();
+        cancelTasks();
+        invalidateBackupChanges();
+        loaded.forEach((uniqueId, traveler) -> {
+            final var index = players.intern(uniqueId);
+            if (traveler == Traveler.EMPTY) {
+                travelers.put(index, traveler);
+            } else {
+                track(index, uniqueId, traveler);
+            }
+            touch(index, uniqueId);
+        });
 
-        if (!file.exists()) {
-            return;
+        for (final var player : Bukkit.getOnlinePlayers()) {
+            getTraveler(player);
         }
+    }
 
-        final var reader = new GsonReader(file);
-        final var travelerMap = reader.readTravelerMap();
-        reader.close();
+    /**
+     * Reads a traveler from the store with the pending store-wide changes
+     * applied. Must only be used on the I/O executor.
+     *
+     * @return the traveler, or {@link Traveler#EMPTY} if there is none
+     */
+    public Traveler readStored(UUID uniqueId) {
+        final var traveler = readRaw(uniqueId);
+        synchronized (pendingUpdates) {
+            return applyPending(traveler);
+        }
+    }
 
-        clearTravelers();
+    private Traveler readRaw(UUID uniqueId) {
+        try {
+            final var traveler = plugin.getStorage().getTravelerStore().read(uniqueId);
+            return traveler != null ? traveler : Traveler.EMPTY;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        if (travelerMap != null) {
-            travelers.putAll(travelerMap);
+    private Traveler applyPending(Traveler traveler) {
+        if (traveler != Traveler.EMPTY) {
+            pendingUpdates.forEach(action -> action.accept(traveler));
         }
+        return traveler;
+    }
+
+    /**
+     * Reads a traveler on the I/O executor, so it is ordered after any pending
+     * write of the same traveler. Safe to call from any thread.
+     */
+    public CompletableFuture<Void> prefetch(UUID uniqueId) {
+        final var index = players.intern(uniqueId);
+        return CompletableFuture.runAsync(() -> {
+            if (!travelers.containsKey(index) && !prefetched.containsKey(index)) {
+                final var traveler = readRaw(uniqueId);
+                synchronized (pendingUpdates) {
+                    prefetched.put(index, applyPending(traveler));
+                }
+            }
+        }, plugin.getIoExecutor());
     }
 
-    public void saveTravelers(WaypointsPlugin plugin) throws IOException {
-        if (travelers.isEmpty()) {
+    /**
+     * Drops every prefetch, e.g. because the store was replaced. Must only be
+     * used on the I/O executor, so later prefetches read the new store.
+     */
+    public void clearPrefetched() {
+        prefetched.clear();
+        loading.clear();
+    }
+
+    /**
+     * @return whether the traveler can be used without reading it first
+     */
+    public boolean isLoaded(UUID uniqueId) {
+        final var index = players.intern(uniqueId);
+        return travelers.containsKey(index) || prefetched.containsKey(index);
+    }
+
+    /**
+     * Runs an action on the server thread once all the travelers are loaded,
+     * right away if they already are. Use this before changing travelers of
+     * players who may be offline, since the server thread never reads them.
+     */
+    public void withTravelers(Collection<UUID> uniqueIds, Runnable action) {
+        final var reads = uniqueIds.stream()
+                .distinct()
+                .filter(uniqueId -> !isLoaded(uniqueId))
+                .map(this::prefetch)
+                .toArray(CompletableFuture[]::new);
+        if (reads.length == 0) {
+            action.run();
             return;
         }
+        // Checked again, since a traveler may be evicted before the action runs
+        CompletableFuture.allOf(reads)
+                .thenRunAsync(() -> withTravelers(uniqueIds, action), plugin.getMainThreadExecutor())
+                .exceptionally(throwable -> {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to read travelers", throwable);
+                    return null;
+                });
+    }
 
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+    public boolean isDirty() {
+        synchronized (travelers) {
+            return travelers.values().stream().anyMatch(Traveler::isDirty);
+        }
+    }
 
-        final var writer = new GsonWriter(file);
-        writer.writeTravelerMap(travelers);
-        writer.close();
+    /**
+     * Flags the travelers of a failed save as unsaved again.
+     *
+     * @param saved the copies that failed to be written
+     */
+    public void restoreDirty(Map<UUID, Traveler> saved) {
+        for (final var entry : saved.entrySet()) {
+            final var uniqueId = entry.getKey();
+            final var index = players.intern(uniqueId);
+            final var traveler = travelers.get(index);
+            if (traveler == null) {
+                // Evicted while the write was in flight, so the copy is the latest
+                prefetched.remove(index);
+                track(index, uniqueId, entry.getValue());
+                entry.getValue().markDirty();
+                touch(index, uniqueId);
+            } else if (traveler == Traveler.EMPTY) {
+                // Emptied before the failed save, so its delete must be retried
+                getOrCreateTraveler(uniqueId).markDirty();
+            } else {
+                traveler.markDirty();
+            }
+        }
     }
 
-    public void clearTravelers() {
-        travelers.clear();
+    /**
+     * Copies the travelers with unsaved changes. Those left with nothing set
+     * are swapped for {@link Traveler#EMPTY}, and their copies tell the store
+     * to delete them.
+     */
+    public HashMap<UUID, Traveler> snapshotTravelers() {
+        final var snapshot = new HashMap<UUID, Traveler>();
+        synchronized (travelers) {
+            travelers.int2ObjectEntrySet().forEach(entry -> {
+                final var traveler = entry.getValue();
+                if (traveler.isDirty()) {
+                    snapshot.put(players.get(entry.getIntKey()), traveler.copy());
+                    traveler.markClean();
+                    if (traveler.isEmpty()) {
+                        traveler.setChangeListener(null);
+                        entry.setValue(Traveler.EMPTY);
+                    }
+                }
+            });
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return a copy of every loaded traveler, leaving unsaved changes flagged
+     */
+    public HashMap<UUID, Traveler> copyTravelers() {
+        final var copy = new HashMap<UUID, Traveler>();
+        synchronized (travelers) {
+            travelers.int2ObjectEntrySet().forEach(entry -> {
+                if (entry.getValue() != Traveler.EMPTY) {
+                    copy.put(players.get(entry.getIntKey()), entry.getValue().copy());
+                }
+            });
+        }
+        return copy;
+    }
+
+    /**
+     * Cancels every task, which also puts back any waypoint that is being
+     * repositioned.
+     */
+    public void cancelTasks() {
         tasks.values().forEach(BukkitRunnable::cancel);
         tasks.clear();
     }
 
-    public Traveler getOrCreateTraveler(UUID uniqueId) {
-        var traveler = travelers.get(uniqueId);
+    /**
+     * Never waits on the I/O executor. A traveler that is not loaded yet is
+     * read in the background and shows as empty until then; online players
+     * are read before they join, so theirs always is.
+     *
+     * @return the traveler, or {@link Traveler#EMPTY} if the player has none;
+     *         use {@link #getOrCreateTraveler(UUID)} to change it
+     */
+    public TravelerView getTraveler(UUID uniqueId) {
+        final var traveler = load(uniqueId);
+        return traveler != null ? traveler : Traveler.EMPTY;
+    }
+
+    /**
+     * @return the traveler, or {@code null} if it is still being read
+     */
+    private Traveler load(UUID uniqueId) {
+        final var index = players.intern(uniqueId);
+        var traveler = travelers.get(index);
         if (traveler == null) {
-            traveler = new Traveler(0, 0, null, null, null);
-            travelers.put(uniqueId, traveler);
+            traveler = prefetched.remove(index);
+            if (traveler == null) {
+                if (!loading.contains(index)) {
+                    loading.add(index);
+                    prefetch(uniqueId).whenComplete((result, throwable) -> loading.remove(index));
+                }
+                return null;
+            }
+            if (traveler == Traveler.EMPTY) {
+                travelers.put(index, traveler);
+            } else {
+                track(index, uniqueId, traveler);
+            }
         }
+        touch(index, uniqueId);
         return traveler;
     }
 
+    /**
+     * Keeps offline travelers, such as those loaded for token refunds, in
+     * least recently used order, so they are evicted once idle or when there
+     * are too many of them.
+     */
+    private void touch(int index, UUID uniqueId) {
+        if (Bukkit.getPlayer(uniqueId) != null) {
+            lastUsed.remove(index);
+            return;
+        }
+        lastUsed.putAndMoveToLast(index, System.currentTimeMillis());
+        if (lastUsed.size() > plugin.getTravelerCacheSize() && !evictScheduled && plugin.isEnabled()) {
+            evictScheduled = true;
+            Bukkit.getScheduler().runTask(plugin, this::evictIdle);
+        }
+    }
+
+    public TravelerView getTraveler(Player player) {
+        return getTraveler(player.getUniqueId());
+    }
+
+    /**
+     * Same as {@link #getTraveler(UUID)}, but gives a player with no traveler
+     * a new one. Only use this to change the traveler, and only once it is
+     * loaded, see {@link #withTravelers(Collection, Runnable)}.
+     *
+     * @throws IllegalStateException if the traveler is still being read, since
+     *                               a new one would replace the stored one
+     */
+    public Traveler getOrCreateTraveler(UUID uniqueId) {
+        final var traveler = load(uniqueId);
+        if (traveler == null) {
+            throw new IllegalStateException("Traveler " + uniqueId + " is not loaded yet");
+        }
+        if (traveler != Traveler.EMPTY) {
+            return traveler;
+        }
+        final var created = new Traveler(0, 0, null, null, null);
+        track(players.intern(uniqueId), uniqueId, created);
+        return created;
+    }
+
+    /**
+     * Gives each player a token back for every time they are listed, once
+     * their travelers are loaded.
+     */
+    public void refundTokens(List<UUID> uniqueIds) {
+        final var refunded = List.copyOf(uniqueIds);
+        withTravelers(refunded, () -> refunded.forEach(uniqueId -> {
+            final var traveler = getOrCreateTraveler(uniqueId);
+            traveler.setTokens(traveler.getTokens() + 1);
+        }));
+    }
+
+    private void track(int index, UUID uniqueId, Traveler traveler) {
+        traveler.resolveWorlds();
+        travelers.put(index, traveler);
+        final var journal = plugin.getJournal();
+        traveler.setChangeListener(fields -> {
+            journal.travelerChanged(uniqueId, traveler, fields);
+            markBackupChanged(uniqueId);
+        });
+    }
+
+    /**
+     * @return the players whose stored travelers may have changed since the
+     *         last call, or {@code null} if any of them may have
+     */
+    public synchronized Set<UUID> takeBackupChanges() {
+        final var changes = backupChanges;
+        backupChanges = new HashSet<>();
+        return changes;
+    }
+
+    /**
+     * Makes the next backup read every traveler, e.g. because the last one
+     * failed after taking the changes.
+     */
+    public synchronized void invalidateBackupChanges() {
+        backupChanges = null;
+    }
+
+    private synchronized void markBackupChanged(UUID uniqueId) {
+        if (backupChanges != null) {
+            backupChanges.add(uniqueId);
+        }
+    }
+
     public Traveler getOrCreateTraveler(Player player) {
         return getOrCreateTraveler(player.getUniqueId());
     }
 
+    /**
+     * Starts the idle time of a player who quit.
+     */
+    public void scheduleEviction(UUID uniqueId) {
+        final var index = players.indexOf(uniqueId);
+        if (index != -1 && travelers.containsKey(index)) {
+            lastUsed.putAndMoveToLast(index, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Evicts offline travelers idle for longer than the evict delay, and the
+     * least recently used ones while there are more than the cache size.
+     * Dirty travelers are written back first and evicted once the save is
+     * done. Also drops prefetches left by logins that never completed.
+     */
+    public void evictIdle() {
+        evictScheduled = false;
+        final var idleSince = System.currentTimeMillis() - plugin.getTravelerEvictDelay() * 1000L;
+        var excess = lastUsed.size() - plugin.getTravelerCacheSize();
+        var dirty = false;
+        final var iterator = lastUsed.int2LongEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            final var entry = iterator.next();
+            if (excess <= 0 && entry.getLongValue() > idleSince) {
+                break;
+            }
+            final var index = entry.getIntKey();
+            final var traveler = travelers.get(index);
+            final var online = Bukkit.getPlayer(players.get(index)) != null;
+            if (!online && traveler != null && traveler.isDirty()) {
+                dirty = true;
+                continue;
+            }
+            iterator.remove();
+            excess--;
+            if (!online && traveler != null) {
+                travelers.remove(index);
+                traveler.setChangeListener(null);
+            }
+        }
+        if (dirty && (writeback == null || writeback.isDone())) {
+            writeback = plugin.saveData();
+            writeback.thenRun(() -> {
+                if (plugin.isEnabled()) {
+                    Bukkit.getScheduler().runTask(plugin, this::evictIdle);
+                }
+            });
+        }
+
+        // A prefetch still unused since the last run belongs to a failed login
+        synchronized (prefetched) {
+            stalePrefetches.forEach(index -> {
+                if (Bukkit.getPlayer(players.get(index)) == null) {
+                    prefetched.remove(index);
+                }
+            });
+            stalePrefetches = new IntOpenHashSet(prefetched.keySet());
+        }
+    }
+
     public <T extends BukkitRunnable> T getTask(Player player, Class<T> taskCls) {
-        final var task = tasks.get(player.getUniqueId());
+        final var task = tasks.get(players.indexOf(player.getUniqueId()));
         if (task == null || task.isCancelled()) {
             return null;
         }
@@ -83,28 +464,188 @@ public class TravelerMap {
     }
 
     public void registerTask(Player player, BukkitRunnable task) {
-        final var previousTask = tasks.put(player.getUniqueId(), task);
+        final var previousTask = tasks.put(players.intern(player.getUniqueId()), task);
         if (previousTask != null) {
             previousTask.cancel();
         }
     }
 
     public void unregisterTask(Player player) {
-        final var task = tasks.remove(player.getUniqueId());
+        final var task = tasks.remove(players.indexOf(player.getUniqueId()));
         if (task != null) {
             task.cancel();
         }
     }
 
+    /**
+     * Applies a change to every traveler, including those that are only on
+     * disk. Resident travelers are changed now, and the store on the I/O
+     * executor. Travelers read from the store before that get the change
+     * as they are read, so no traveler gets it twice.
+     */
+    private void updateAll(Consumer<Traveler> action) {
+        if (plugin.isMaintaining()) {
+            // The store is being replaced, and the reload after it drops the resident change too
+            applyResident(action);
+            return;
+        }
+        invalidateBackupChanges();
+        synchronized (pendingUpdates) {
+            applyResident(action);
+            pendingUpdates.add(action);
+        }
+        CompletableFuture.runAsync(() -> {
+            pendingUpdates.remove(action);
+            try {
+                plugin.getStorage().getTravelerStore().updateAll(action);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, plugin.getIoExecutor()).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to update traveler files", throwable);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #updateAll(Consumer)}, but only reads and rewrites the
+     * given travelers.
+     *
+     * @param then run on the server thread once they are all updated, unless
+     *             the plugin was disabled or the update failed
+     */
+    private void update(List<UUID> uniqueIds, Consumer<Traveler> action, Runnable then) {
+        final Consumer<UUID> applyResident = uniqueId -> {
+            final var index = players.indexOf(uniqueId);
+            final var traveler = travelers.get(index);
+            if (traveler != null) {
+                action.accept(traveler);
+            }
+            final var prefetchedTraveler = prefetched.get(index);
+            if (prefetchedTraveler != null) {
+                action.accept(prefetchedTraveler);
+            }
+        };
+        uniqueIds.forEach(applyResident);
+        if (plugin.isMaintaining()) {
+            // Same as in updateAll, and the ids in the store may have been renumbered
+            return;
+        }
+        uniqueIds.forEach(this::markBackupChanged);
+        CompletableFuture.runAsync(() -> {
+            try {
+                final var travelerStore = plugin.getStorage().getTravelerStore();
+                for (final var uniqueId : uniqueIds) {
+                    final var traveler = travelerStore.read(uniqueId);
+                    if (traveler == null) {
+                        continue;
+                    }
+                    action.accept(traveler);
+                    if (traveler.isDirty() && traveler.isEmpty()) {
+                        travelerStore.delete(uniqueId);
+                    } else if (traveler.isDirty()) {
+                        travelerStore.write(uniqueId, traveler);
+                    }
+                }
+                travelerStore.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, plugin.getIoExecutor()).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to update traveler files", throwable);
+            }
+            if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    uniqueIds.forEach(applyResident);
+                    if (throwable == null) {
+                        then.run();
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyResident(Consumer<Traveler> action) {
+        synchronized (travelers) {
+            travelers.values().forEach(action);
+        }
+        synchronized (prefetched) {
+            prefetched.values().forEach(action);
+        }
+    }
+
     public void removeWaypoint(Waypoint waypoint) {
-        travelers.values().forEach(traveler -> traveler.unregisterWaypoint(waypoint));
+        removeWaypoint(waypoint.getId());
+    }
+
+    /**
+     * Unregisters a removed waypoint from the travelers that had registered
+     * it, then lets its id be reused.
+     */
+    public void removeWaypoint(int id) {
+        plugin.getJournal().waypointUnregistered(id);
+        update(registrations.removeWaypoint(id), traveler -> traveler.unregisterWaypoint(id),
+                () -> plugin.getWaypointMap().releaseId(id));
+    }
+
+    public void registerWaypoint(UUID uniqueId, Waypoint waypoint) {
+        getOrCreateTraveler(uniqueId).registerWaypoint(waypoint);
+        registrations.add(uniqueId, waypoint.getId());
+    }
+
+    /**
+     * Replaces the registered waypoints of a traveler, e.g. from the journal.
+     */
+    public void setWaypoints(UUID uniqueId, BitSet waypoints) {
+        final var traveler = getOrCreateTraveler(uniqueId);
+        registrations.remove(uniqueId, traveler.getWaypoints());
+        traveler.setWaypoints(waypoints);
+        registrations.add(uniqueId, waypoints);
+    }
+
+    /**
+     * @return how many travelers, online or not, have registered the waypoint
+     */
+    public int getRegistrationCount(Waypoint waypoint) {
+        return registrations.count(waypoint.getId());
+    }
+
+    /**
+     * Replaces the registrations with ones read from disk, before the
+     * journal is replayed.
+     */
+    public void loadRegistrations(WaypointRegistrations registrations) {
+        this.registrations = registrations;
+    }
+
+    /**
+     * @see WaypointRegistrations#snapshot()
+     */
+    public WaypointRegistrations snapshotRegistrations() {
+        return registrations.snapshot();
+    }
+
+    public void markRegistrationsDirty() {
+        registrations.markDirty();
     }
 
     public void removeCamps() {
-        travelers.values().forEach(traveler -> traveler.setCamp(null));
+        plugin.getJournal().campsRemoved();
+        updateAll(traveler -> {
+            if (traveler.getCamp() != null) {
+                traveler.setCamp(null);
+            }
+        });
     }
 
     public void removeHomes() {
-        travelers.values().forEach(traveler -> traveler.setHome(null));
+        plugin.getJournal().homesRemoved();
+        updateAll(traveler -> {
+            if (traveler.getHome() != null) {
+                traveler.setHome(null);
+            }
+        });
     }
 }
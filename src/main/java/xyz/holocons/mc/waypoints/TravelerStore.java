@@ -0,0 +1,44 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Where travelers live on disk. Implementations are not thread-safe and must
+ * only be used on the plugin's I/O executor.
+ */
+public interface TravelerStore {
+
+    @FunctionalInterface
+    interface TravelerVisitor {
+        void visit(UUID uniqueId, Traveler traveler) throws IOException;
+    }
+
+    /**
+     * @return the stored traveler, or {@code null} if there is none
+     */
+    Traveler read(UUID uniqueId) throws IOException;
+
+    void write(UUID uniqueId, Traveler traveler) throws IOException;
+
+    /**
+     * Removes the stored traveler, if there is one.
+     */
+    void delete(UUID uniqueId) throws IOException;
+
+    /**
+     * Applies {@code action} to every stored traveler and writes back those
+     * it marked dirty.
+     */
+    void updateAll(Consumer<Traveler> action) throws IOException;
+
+    void forEach(TravelerVisitor visitor) throws IOException;
+
+    /**
+     * Makes every write so far durable.
+     */
+    void flush() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,27 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.BitSet;
+
+/**
+ * What can be read from a traveler without changing it, as returned by
+ * {@link TravelerMap#getTraveler(java.util.UUID)}.
+ */
+public interface TravelerView {
+
+    int getCharges();
+
+    int getTokens();
+
+    BlockPos getHome();
+
+    BlockPos getCamp();
+
+    /**
+     * @return the registered waypoint ids, which must not be changed
+     */
+    BitSet getWaypoints();
+
+    boolean isEmpty();
+
+    boolean hasWaypoint(Waypoint waypoint);
+}
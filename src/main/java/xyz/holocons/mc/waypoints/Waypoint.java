@@ -5,17 +5,18 @@ import java.util.List;
 import java.util.UUID;
 
 import org.bukkit.Bukkit;
-import org.bukkit.Chunk;
 import org.bukkit.DyeColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Tag;
+import org.bukkit.World;
 import org.bukkit.block.banner.Pattern;
 import org.bukkit.block.banner.PatternType;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.BannerMeta;
 
+import it.unimi.dsi.fastutil.ints.Int2IntLinkedOpenHashMap;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.format.TextDecoration;
@@ -25,10 +26,12 @@ public class Waypoint {
 
     private static final Component INACTIVE_WAYPOINT_COMPONENT;
     private static final Component UNNAMED_WAYPOINT_COMPONENT;
+    private static final String UNNAMED_WAYPOINT_NAME;
     private static final ItemStack MISSING_BANNER_ITEMSTACK;
     static {
         INACTIVE_WAYPOINT_COMPONENT = Component.text("Inactive Waypoint");
         UNNAMED_WAYPOINT_COMPONENT = Component.text("Unnamed Waypoint");
+        UNNAMED_WAYPOINT_NAME = PlainTextComponentSerializer.plainText().serialize(UNNAMED_WAYPOINT_COMPONENT);
         MISSING_BANNER_ITEMSTACK = new ItemStack(Material.WHITE_BANNER);
         var bannerMeta = (BannerMeta) MISSING_BANNER_ITEMSTACK.getItemMeta();
         bannerMeta.addPattern(new Pattern(DyeColor.BLACK, PatternType.STRIPE_TOP));
@@ -61,28 +64,173 @@ public class Waypoint {
         return PatternType.STRIPE_MIDDLE; // Fallback pattern
     }
 
+    /**
+     * The banner of a waypoint as it was when last placed, so names and menu
+     * items never have to read the block, which may load its chunk.
+     *
+     * @param customName the name the banner was given, or {@code null}
+     * @param name       {@code customName} as plain text, or {@code null}
+     */
+    public record BannerSnapshot(CampBannerMap.BannerDesign design, Component customName, String name) {
+
+        public BannerSnapshot(CampBannerMap.BannerDesign design, Component customName) {
+            this(design, customName,
+                    customName != null ? PlainTextComponentSerializer.plainText().serialize(customName) : null);
+        }
+
+        /**
+         * Reads the banner at {@code location}, loading its chunk if needed.
+         *
+         * @return the snapshot, or {@code null} if there is no banner
+         */
+        public static BannerSnapshot of(Location location) {
+            for (final var itemStack : location.getBlock().getDrops()) {
+                if (Tag.ITEMS_BANNERS.isTagged(itemStack.getType())) {
+                    final var bannerMeta = (BannerMeta) itemStack.getItemMeta();
+                    return new BannerSnapshot(
+                            new CampBannerMap.BannerDesign(itemStack.getType(),
+                                    bannerMeta.getPatterns().toArray(Pattern[]::new)),
+                            bannerMeta.hasDisplayName() ? bannerMeta.displayName() : null);
+                }
+            }
+            return null;
+        }
+
+        private ItemStack toItemStack() {
+            final var itemStack = new ItemStack(design.getMaterial());
+            final var bannerMeta = (BannerMeta) itemStack.getItemMeta();
+            bannerMeta.setPatterns(List.of(design.getPatterns()));
+            if (customName != null) {
+                bannerMeta.displayName(customName);
+            }
+            itemStack.setItemMeta(bannerMeta);
+            return itemStack;
+        }
+    }
+
     private int id;
-    private Location location;
-    private ArrayList<UUID> contributors;
+    private BlockPos position;
+    // Tokens added by each contributor, by player index
+    private final Int2IntLinkedOpenHashMap contributors;
+    private int tokens;
     private boolean active;
+    private BannerSnapshot banner;
+    private Hologram.Appearance hologramAppearance;
+    private Hologram.Appearance farHologramAppearance;
+    private boolean dirty;
+    private Runnable changeListener;
+
+    public Waypoint(int id, BlockPos position, List<UUID> contributors, boolean active) {
+        this(id, position, contributors, active, null);
+    }
 
-    public Waypoint(int id, Location location, ArrayList<UUID> contributors, boolean active) {
+    /**
+     * @param contributors one entry per token added, so a player may appear
+     *                     more than once
+     */
+    public Waypoint(int id, BlockPos position, List<UUID> contributors, boolean active,
+            BannerSnapshot banner) {
         this.id = id;
-        this.location = location;
-        this.contributors = contributors == null ? new ArrayList<>() : contributors;
+        this.position = position;
+        this.contributors = new Int2IntLinkedOpenHashMap();
         this.active = active;
+        this.banner = banner;
+        if (contributors != null) {
+            final var players = PlayerIndex.global();
+            for (final var uniqueId : contributors) {
+                this.contributors.addTo(players.intern(uniqueId), 1);
+            }
+            this.tokens = contributors.size();
+        }
+    }
+
+    public Waypoint copy() {
+        return copy(id);
+    }
+
+    /**
+     * @return a copy with another id
+     */
+    public Waypoint copy(int id) {
+        final var copy = new Waypoint(id, position, null, active, banner);
+        copy.contributors.putAll(contributors);
+        copy.tokens = tokens;
+        return copy;
+    }
+
+    /**
+     * Resolves the world of a position read from storage, without counting
+     * as a change.
+     *
+     * @return whether the world of the waypoint is loaded
+     */
+    boolean resolveWorld() {
+        position = position.resolve();
+        return position.getWorld() != null;
     }
 
     public int getId() {
         return id;
     }
 
+    public BlockPos getPosition() {
+        return position;
+    }
+
+    /**
+     * @return a new location at the corner of the banner block
+     */
     public Location getLocation() {
-        return location.clone();
+        return position.toLocation();
     }
 
+    /**
+     * @return one entry per token added, so a player may appear more than once
+     */
     public ArrayList<UUID> getContributors() {
-        return contributors;
+        final var players = PlayerIndex.global();
+        final var uniqueIds = new ArrayList<UUID>(tokens);
+        for (final var entry : contributors.int2IntEntrySet()) {
+            final var uniqueId = players.get(entry.getIntKey());
+            for (var i = 0; i < entry.getIntValue(); i++) {
+                uniqueIds.add(uniqueId);
+            }
+        }
+        return uniqueIds;
+    }
+
+    /**
+     * @return how many tokens were added in total
+     */
+    public int getTokenCount() {
+        return tokens;
+    }
+
+    public boolean isContributor(UUID uniqueId) {
+        final var index = PlayerIndex.global().indexOf(uniqueId);
+        return index != -1 && contributors.containsKey(index);
+    }
+
+    public void addContributor(UUID uniqueId) {
+        contributors.addTo(PlayerIndex.global().intern(uniqueId), 1);
+        tokens++;
+        changed();
+    }
+
+    /**
+     * Takes back one token added by the player.
+     */
+    public boolean removeContributor(UUID uniqueId) {
+        final var index = PlayerIndex.global().indexOf(uniqueId);
+        if (index == -1 || !contributors.containsKey(index)) {
+            return false;
+        }
+        if (contributors.addTo(index, -1) == 1) {
+            contributors.remove(index);
+        }
+        tokens--;
+        changed();
+        return true;
     }
 
     public boolean isActive() {
@@ -91,83 +239,137 @@ public class Waypoint {
 
     public void activate() {
         active = true;
+        appearanceChanged();
+        changed();
     }
 
     public void deactivate() {
         active = false;
+        appearanceChanged();
+        changed();
+    }
+
+    /**
+     * @return the banner as it was when last placed, or {@code null} if it is
+     *         not known yet
+     */
+    public BannerSnapshot getBanner() {
+        return banner;
+    }
+
+    /**
+     * Takes a new snapshot of the banner. Only call this when the banner was
+     * just placed, replaced or moved, since it reads the block.
+     */
+    public void refreshBanner() {
+        banner = BannerSnapshot.of(position.toLocation());
+        appearanceChanged();
+        changed();
+    }
+
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed() {
+        dirty = true;
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void markClean() {
+        dirty = false;
+    }
+
+    /**
+     * @return the world, or {@code null} while it is not loaded
+     */
+    public World getWorld() {
+        return position.getWorld();
+    }
+
+    /**
+     * Same as {@code getWorld().getUID()}, but also known while the world is
+     * not loaded.
+     */
+    public UUID getWorldId() {
+        return position.getWorldId();
     }
 
     public long getChunkKey() {
-        return Chunk.getChunkKey(location);
+        return position.getChunkKey();
+    }
+
+    public long getWorldChunkKey() {
+        return position.getWorldChunkKey();
     }
 
     public List<String> getContributorNames() {
-        return contributors.stream().map(uniqueId -> {
+        final var players = PlayerIndex.global();
+        return contributors.keySet().intStream().mapToObj(index -> {
+            final var uniqueId = players.get(index);
             final var player = Bukkit.getPlayer(uniqueId);
             return player != null ? player.getName() : uniqueId.toString();
         }).toList();
     }
 
-    private static ItemStack getBannerItem(Location location) {
-        for (var itemStack : location.getBlock().getDrops()) {
-            if (Tag.ITEMS_BANNERS.isTagged(itemStack.getType())) {
-                return itemStack;
-            }
-        }
-        return MISSING_BANNER_ITEMSTACK.clone();
-    }
-
-    private static ItemStack getDisplayItem(Location location) {
-        var itemStack = getBannerItem(location);
-        var itemMeta = itemStack.getItemMeta();
+    public ItemStack getDisplayItem() {
+        final var itemStack = banner != null ? banner.toItemStack() : MISSING_BANNER_ITEMSTACK.clone();
+        final var itemMeta = itemStack.getItemMeta();
         itemMeta.addItemFlags(ItemFlag.HIDE_ENCHANTS, ItemFlag.HIDE_ITEM_SPECIFICS);
-        if (itemMeta.hasDisplayName()) {
+        if (!active) {
+            itemMeta.displayName(INACTIVE_WAYPOINT_COMPONENT);
+        } else if (itemMeta.hasDisplayName()) {
             itemMeta.displayName(itemMeta.displayName().decoration(TextDecoration.ITALIC, false));
         }
-        var vectorComponent = Component.text(
-                String.format("%d %d %d", location.getBlockX(), location.getBlockY(), location.getBlockZ()),
-                NamedTextColor.GRAY);
-        var worldComponent = Component.text(location.getWorld().getName(), NamedTextColor.GRAY);
+        final var vectorComponent = Component.text(
+                String.format("%d %d %d", position.getX(), position.getY(), position.getZ()), NamedTextColor.GRAY);
+        final var worldComponent = Component.text(position.getWorldName(), NamedTextColor.GRAY);
         itemMeta.lore(List.of(vectorComponent, worldComponent));
         itemStack.setItemMeta(itemMeta);
         return itemStack;
     }
 
-    public ItemStack getDisplayItem() {
-        var itemStack = Waypoint.getDisplayItem(location);
-        if (!active) {
-            var itemMeta = itemStack.getItemMeta();
-            itemMeta.displayName(INACTIVE_WAYPOINT_COMPONENT);
-            itemStack.setItemMeta(itemMeta);
+    /**
+     * @param detailed see {@link Hologram.Appearance#of(Waypoint, Hologram.Style, boolean)}
+     * @return the hologram contents, built on first use after the name or
+     *         active state changed
+     */
+    public Hologram.Appearance getHologramAppearance(Hologram.Style style, boolean detailed) {
+        if (detailed) {
+            if (hologramAppearance == null || hologramAppearance.style() != style) {
+                hologramAppearance = Hologram.Appearance.of(this, style, true);
+            }
+            return hologramAppearance;
         }
-        return itemStack;
+        if (farHologramAppearance == null || farHologramAppearance.style() != style) {
+            farHologramAppearance = Hologram.Appearance.of(this, style, false);
+        }
+        return farHologramAppearance;
     }
 
-    private static Component getDisplayName(Location location) {
-        var itemStack = getBannerItem(location);
-        var itemMeta = itemStack.getItemMeta();
-        if (itemMeta.hasDisplayName()) {
-            return itemMeta.displayName();
-        }
-        return UNNAMED_WAYPOINT_COMPONENT;
+    private void appearanceChanged() {
+        hologramAppearance = null;
+        farHologramAppearance = null;
     }
 
     public Component getDisplayName() {
         if (!active) {
             return INACTIVE_WAYPOINT_COMPONENT;
         }
-        return Waypoint.getDisplayName(location);
+        return hasName() ? banner.customName() : UNNAMED_WAYPOINT_COMPONENT;
     }
 
     public String getName() {
-        return PlainTextComponentSerializer.plainText().serialize(Waypoint.getDisplayName(location));
+        return hasName() ? banner.name() : UNNAMED_WAYPOINT_NAME;
     }
 
     public boolean hasName() {
-        return getName() != PlainTextComponentSerializer.plainText().serialize(UNNAMED_WAYPOINT_COMPONENT);
-    }
-
-    public boolean hasBannerItem(Waypoint waypoint) {
-        return getBannerItem(location) != MISSING_BANNER_ITEMSTACK;
+        return banner != null && banner.customName() != null;
     }
 }
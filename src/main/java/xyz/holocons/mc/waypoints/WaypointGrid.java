@@ -0,0 +1,185 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import org.bukkit.Location;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * The waypoints of one world, bucketed into square regions, so nearest and
+ * radius queries only look at the regions around the query point.
+ */
+public class WaypointGrid {
+
+    private static final int REGION_SHIFT = 9; // 512 blocks
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    private record Candidate(Waypoint waypoint, double distanceSquared) {
+    }
+
+    private final Long2ObjectOpenHashMap<ArrayList<Waypoint>> regions;
+    private int size;
+
+    public WaypointGrid() {
+        this.regions = new Long2ObjectOpenHashMap<>();
+    }
+
+    public void add(Waypoint waypoint) {
+        final var position = waypoint.getPosition();
+        regions.computeIfAbsent(getRegionKey(position.getX() >> REGION_SHIFT, position.getZ() >> REGION_SHIFT),
+                key -> new ArrayList<>()).add(waypoint);
+        size++;
+    }
+
+    public void remove(Waypoint waypoint) {
+        final var position = waypoint.getPosition();
+        final var key = getRegionKey(position.getX() >> REGION_SHIFT, position.getZ() >> REGION_SHIFT);
+        final var region = regions.get(key);
+        if (region != null && region.remove(waypoint)) {
+            size--;
+            if (region.isEmpty()) {
+                regions.remove(key);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return up to {@code count} waypoints matching {@code filter}, nearest
+     *         first
+     */
+    public List<Waypoint> getNearest(Location location, int count, Predicate<Waypoint> filter) {
+        if (count <= 0) {
+            return List.of();
+        }
+        // The farthest of the best candidates so far is at the head
+        final var best = new PriorityQueue<Candidate>(
+                Comparator.comparingDouble(Candidate::distanceSquared).reversed());
+        final var centerX = location.getBlockX() >> REGION_SHIFT;
+        final var centerZ = location.getBlockZ() >> REGION_SHIFT;
+        var visited = 0;
+        for (var ring = 0; visited < size; ring++) {
+            // Nothing in this ring or beyond is closer than this
+            final var minDistance = (double) Math.max(0, ring - 1) * REGION_SIZE;
+            if (best.size() == count && best.peek().distanceSquared() <= minDistance * minDistance) {
+                break;
+            }
+            // Sparse enough that walking every region beats walking the rings
+            final var last = 8L * ring > regions.size();
+            for (final var region : last ? getOutside(centerX, centerZ, ring) : getRing(centerX, centerZ, ring)) {
+                visited += region.size();
+                for (final var waypoint : region) {
+                    if (!filter.test(waypoint)) {
+                        continue;
+                    }
+                    final var distanceSquared = waypoint.getPosition().distanceSquared(location);
+                    if (best.size() < count) {
+                        best.add(new Candidate(waypoint, distanceSquared));
+                    } else if (distanceSquared < best.peek().distanceSquared()) {
+                        best.poll();
+                        best.add(new Candidate(waypoint, distanceSquared));
+                    }
+                }
+            }
+            if (last) {
+                break;
+            }
+        }
+        return best.stream()
+                .sorted(Comparator.comparingDouble(Candidate::distanceSquared))
+                .map(Candidate::waypoint)
+                .toList();
+    }
+
+    /**
+     * @return the waypoints matching {@code filter} within {@code radius}
+     *         blocks, nearest first
+     */
+    public List<Waypoint> getWithin(Location location, double radius, Predicate<Waypoint> filter) {
+        final var radiusSquared = radius * radius;
+        final var minX = (int) Math.floor(location.getX() - radius) >> REGION_SHIFT;
+        final var maxX = (int) Math.floor(location.getX() + radius) >> REGION_SHIFT;
+        final var minZ = (int) Math.floor(location.getZ() - radius) >> REGION_SHIFT;
+        final var maxZ = (int) Math.floor(location.getZ() + radius) >> REGION_SHIFT;
+        final var candidates = new ArrayList<Candidate>();
+        final var cells = ((long) maxX - minX + 1) * ((long) maxZ - minZ + 1);
+        final List<ArrayList<Waypoint>> cellRegions;
+        if (cells > regions.size()) {
+            cellRegions = new ArrayList<>(regions.values());
+        } else {
+            cellRegions = new ArrayList<>();
+            for (var x = minX; x <= maxX; x++) {
+                for (var z = minZ; z <= maxZ; z++) {
+                    addRegion(cellRegions, x, z);
+                }
+            }
+        }
+        for (final var region : cellRegions) {
+            for (final var waypoint : region) {
+                final var distanceSquared = waypoint.getPosition().distanceSquared(location);
+                if (distanceSquared <= radiusSquared && filter.test(waypoint)) {
+                    candidates.add(new Candidate(waypoint, distanceSquared));
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::distanceSquared));
+        return candidates.stream().map(Candidate::waypoint).toList();
+    }
+
+    /**
+     * @return the non-empty regions on the square ring {@code ring} regions
+     *         away from the center region
+     */
+    private List<ArrayList<Waypoint>> getRing(int centerX, int centerZ, int ring) {
+        final var ringRegions = new ArrayList<ArrayList<Waypoint>>();
+        if (ring == 0) {
+            addRegion(ringRegions, centerX, centerZ);
+            return ringRegions;
+        }
+        for (var i = -ring; i <= ring; i++) {
+            addRegion(ringRegions, centerX + i, centerZ - ring);
+            addRegion(ringRegions, centerX + i, centerZ + ring);
+        }
+        for (var i = -ring + 1; i < ring; i++) {
+            addRegion(ringRegions, centerX - ring, centerZ + i);
+            addRegion(ringRegions, centerX + ring, centerZ + i);
+        }
+        return ringRegions;
+    }
+
+    /**
+     * @return the regions at least {@code ring} regions away from the center
+     *         region
+     */
+    private List<ArrayList<Waypoint>> getOutside(int centerX, int centerZ, int ring) {
+        final var outside = new ArrayList<ArrayList<Waypoint>>();
+        for (final var entry : regions.long2ObjectEntrySet()) {
+            final var key = entry.getLongKey();
+            final var x = (int) key;
+            final var z = (int) (key >>> 32);
+            if (Math.max(Math.abs((long) x - centerX), Math.abs((long) z - centerZ)) >= ring) {
+                outside.add(entry.getValue());
+            }
+        }
+        return outside;
+    }
+
+    private void addRegion(List<ArrayList<Waypoint>> list, int x, int z) {
+        final var region = regions.get(getRegionKey(x, z));
+        if (region != null) {
+            list.add(region);
+        }
+    }
+
+    private static long getRegionKey(int x, int z) {
+        return (long) x & 0xFFFFFFFFL | ((long) z & 0xFFFFFFFFL) << 32;
+    }
+}
@@ -1,107 +1,367 @@
 package xyz.holocons.mc.waypoints;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
 public class WaypointMap {
 
-    public static final String FILENAME = "waypoint.json";
+    public static final String BASENAME = "waypoint";
+
+    /**
+     * The name and state a waypoint had when it was last indexed, so it can
+     * still be found in the index after its name has changed.
+     */
+    private record NameEntry(String name, boolean named, Waypoint waypoint) {
+    }
+
+    private static final Comparator<NameEntry> NAME_ORDER = Comparator.comparing(NameEntry::name)
+            .thenComparingInt(entry -> entry.waypoint().getId());
 
-    private final HashMap<Long, Waypoint> waypoints;
+    /**
+     * Chunk keys do not include the world, so waypoints are indexed by world
+     * UID first.
+     */
+    private final HashMap<UUID, Long2ObjectOpenHashMap<Waypoint>> waypoints;
+    private final HashMap<UUID, WaypointGrid> grids;
+    private final ArrayList<Waypoint> waypointsById;
+    /**
+     * Ids below {@code waypointsById.size()} that can be given to new
+     * waypoints. Removing a waypoint does not free its id, since travelers
+     * may still have it registered; see {@link #releaseId(int)}.
+     */
+    private final BitSet freeIds;
+    private final Journal journal;
+    private final HashSet<Integer> changedIds;
+    private final HashSet<Integer> removedIds;
+    /**
+     * Every waypoint sorted by name, kept sorted as waypoints are added,
+     * renamed and removed.
+     */
+    private final ArrayList<NameEntry> sortedWaypoints;
+    private final Int2ObjectOpenHashMap<NameEntry> nameEntries;
+    /**
+     * Active, named waypoints by lower case name.
+     */
+    private final HashMap<String, ArrayList<Waypoint>> namedWaypoints;
 
-    public WaypointMap() {
+    public WaypointMap(Journal journal) {
         this.waypoints = new HashMap<>();
+        this.grids = new HashMap<>();
+        this.waypointsById = new ArrayList<>();
+        this.freeIds = new BitSet();
+        this.journal = journal;
+        this.changedIds = new HashSet<>();
+        this.removedIds = new HashSet<>();
+        this.sortedWaypoints = new ArrayList<>();
+        this.nameEntries = new Int2ObjectOpenHashMap<>();
+        this.namedWaypoints = new HashMap<>();
     }
 
-    public void loadWaypoints(WaypointsPlugin plugin) throws IOException {
-        final var file = new File(plugin.getDataFolder(), FILENAME);
-
-        if (!file.exists()) {
-            return;
+    public void loadWaypoints(Map<Integer, Waypoint> waypointMap) {
+        clearWaypoints();
+        for (final var waypoint : waypointMap.values()) {
+            put(waypoint);
+            track(waypoint);
         }
+    }
 
-        final var reader = new GsonReader(file);
-        final var waypointMap = reader.readWaypointMap();
-        reader.close();
+    public boolean isDirty() {
+        return !changedIds.isEmpty() || !removedIds.isEmpty() || getAllWaypoints().anyMatch(Waypoint::isDirty);
+    }
 
-        clearWaypoints();
+    /**
+     * Flags waypoints as unsaved again after a failed save, unless they have
+     * been removed or re-added since.
+     */
+    public void markDirty(Set<Integer> changed, Set<Integer> removed) {
+        final var ids = getAllWaypoints().map(Waypoint::getId).collect(Collectors.toSet());
+        changed.stream().filter(ids::contains).forEach(changedIds::add);
+        removed.stream().filter(id -> !ids.contains(id)).forEach(removedIds::add);
+    }
 
-        if (waypointMap != null) {
-            waypoints.putAll(waypointMap);
-        }
+    /**
+     * @return the ids of waypoints added or changed since the last snapshot
+     */
+    public Set<Integer> getChangedIds() {
+        final var ids = new HashSet<>(changedIds);
+        getAllWaypoints().filter(Waypoint::isDirty).map(Waypoint::getId).forEach(ids::add);
+        return ids;
     }
 
-    public void saveWaypoints(WaypointsPlugin plugin) throws IOException {
-        if (waypoints.isEmpty()) {
-            return;
-        }
+    /**
+     * @return the ids of waypoints removed since the last snapshot
+     */
+    public Set<Integer> getRemovedIds() {
+        return new HashSet<>(removedIds);
+    }
 
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+    /**
+     * @return a copy of every waypoint by id
+     */
+    public HashMap<Integer, Waypoint> snapshotWaypoints() {
+        final var snapshot = new HashMap<Integer, Waypoint>();
+        getAllWaypoints().forEach(waypoint -> {
+            snapshot.put(waypoint.getId(), waypoint.copy());
+            waypoint.markClean();
+        });
+        changedIds.clear();
+        removedIds.clear();
+        return snapshot;
+    }
 
-        final var writer = new GsonWriter(file);
-        writer.writeWaypointMap(waypoints);
-        writer.close();
+    /**
+     * @return a copy of every waypoint, leaving unsaved changes flagged
+     */
+    public HashMap<Integer, Waypoint> copyWaypoints() {
+        final var copy = new HashMap<Integer, Waypoint>();
+        getAllWaypoints().forEach(waypoint -> copy.put(waypoint.getId(), waypoint.copy()));
+        return copy;
     }
 
     public void clearWaypoints() {
         waypoints.clear();
+        grids.clear();
+        waypointsById.clear();
+        freeIds.clear();
+        changedIds.clear();
+        removedIds.clear();
+        sortedWaypoints.clear();
+        nameEntries.clear();
+        namedWaypoints.clear();
     }
 
-    public Waypoint getWaypoint(long chunkKey) {
-        return waypoints.get(chunkKey);
+    public Waypoint getWaypoint(World world, long chunkKey) {
+        final var chunks = waypoints.get(world.getUID());
+        return chunks != null ? chunks.get(chunkKey) : null;
+    }
+
+    /**
+     * @return the waypoint with this id, or {@code null}
+     */
+    public Waypoint getWaypoint(int id) {
+        return id >= 0 && id < waypointsById.size() ? waypointsById.get(id) : null;
     }
 
     public Waypoint getNearbyWaypoint(Location location) {
-        return getWaypoint(Chunk.getChunkKey(location));
+        final var world = location.getWorld();
+        return world != null ? getWaypoint(world, Chunk.getChunkKey(location)) : null;
     }
 
     public Waypoint getNearbyWaypoint(Block block) {
-        return getNearbyWaypoint(block.getLocation());
+        return getWaypoint(block.getWorld(), Chunk.getChunkKey(block.getX() >> 4, block.getZ() >> 4));
+    }
+
+    /**
+     * @return up to {@code count} waypoints in the same world as
+     *         {@code location} matching {@code filter}, nearest first
+     */
+    public List<Waypoint> getNearestWaypoints(Location location, int count, Predicate<Waypoint> filter) {
+        final var grid = location.getWorld() != null ? grids.get(location.getWorld().getUID()) : null;
+        return grid != null ? grid.getNearest(location, count, filter) : List.of();
+    }
+
+    /**
+     * @return the waypoint in the same world as {@code location} nearest to
+     *         it that matches {@code filter}, or {@code null}
+     */
+    public Waypoint getNearestWaypoint(Location location, Predicate<Waypoint> filter) {
+        final var nearest = getNearestWaypoints(location, 1, filter);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * @return the waypoints matching {@code filter} within {@code radius}
+     *         blocks of {@code location}, nearest first
+     */
+    public List<Waypoint> getWaypointsWithin(Location location, double radius, Predicate<Waypoint> filter) {
+        final var grid = location.getWorld() != null ? grids.get(location.getWorld().getUID()) : null;
+        return grid != null ? grid.getWithin(location, radius, filter) : List.of();
     }
 
-    public Waypoint createWaypoint(Location location) {
-        if (getNearbyWaypoint(location) != null) {
+    public Waypoint createWaypoint(BlockPos position) {
+        final var world = position.getWorld();
+        if (world == null || getWaypoint(world, position.getChunkKey()) != null) {
             return null;
         }
-        var waypoint = new Waypoint(getAvailableId(), location, null, false);
-        var chunkKey = waypoint.getChunkKey();
-        waypoints.put(chunkKey, waypoint);
+        var waypoint = new Waypoint(getAvailableId(), position, null, false);
+        put(waypoint);
+        changed(waypoint.getId());
+        track(waypoint);
+        journal.waypointChanged(waypoint);
         return waypoint;
     }
 
     public Waypoint createWaypoint(Block block) {
-        return createWaypoint(block.getLocation());
+        return createWaypoint(BlockPos.of(block));
     }
 
     private int getAvailableId() {
-        return waypoints.values().stream().mapToInt(Waypoint::getId).max().orElse(-1) + 1;
+        final var id = freeIds.nextSetBit(0);
+        return id >= 0 ? id : waypointsById.size();
+    }
+
+    /**
+     * Lets a new waypoint reuse the id of a removed one. Only call this once
+     * no traveler has the id registered any more.
+     */
+    public void releaseId(int id) {
+        if (id >= 0 && id < waypointsById.size() && waypointsById.get(id) == null) {
+            freeIds.set(id);
+        }
+    }
+
+    /**
+     * @return the waypoint ids in use, mapped to dense ids in the same order,
+     *         with {@code -1} for unused ids
+     */
+    public int[] getCompactIds() {
+        final var compactIds = new int[waypointsById.size()];
+        var next = 0;
+        for (var id = 0; id < compactIds.length; id++) {
+            compactIds[id] = waypointsById.get(id) != null ? next++ : -1;
+        }
+        return compactIds;
     }
 
     public void removeWaypoint(Waypoint waypoint) {
-        waypoints.remove(waypoint.getChunkKey());
+        final var worldId = waypoint.getWorldId();
+        final var chunks = waypoints.get(worldId);
+        if (chunks != null) {
+            chunks.remove(waypoint.getChunkKey());
+            if (chunks.isEmpty()) {
+                waypoints.remove(worldId);
+            }
+        }
+        final var grid = grids.get(worldId);
+        if (grid != null) {
+            grid.remove(waypoint);
+            if (grid.isEmpty()) {
+                grids.remove(worldId);
+            }
+        }
+        if (getWaypoint(waypoint.getId()) == waypoint) {
+            waypointsById.set(waypoint.getId(), null);
+        }
+        changedIds.remove(waypoint.getId());
+        removedIds.add(waypoint.getId());
+        final var entry = nameEntries.remove(waypoint.getId());
+        if (entry != null) {
+            unindex(entry);
+        }
+        waypoint.setChangeListener(null);
+        journal.waypointRemoved(waypoint);
     }
 
     public void addWaypoint(Waypoint waypoint) {
-        waypoints.put(waypoint.getChunkKey(), waypoint);
+        put(waypoint);
+        changed(waypoint.getId());
+        track(waypoint);
+        journal.waypointChanged(waypoint);
+    }
+
+    private void put(Waypoint waypoint) {
+        final var worldId = waypoint.getWorldId();
+        final var previous = waypoints.computeIfAbsent(worldId, uniqueId -> new Long2ObjectOpenHashMap<>())
+                .put(waypoint.getChunkKey(), waypoint);
+        final var grid = grids.computeIfAbsent(worldId, uniqueId -> new WaypointGrid());
+        if (previous != null) {
+            grid.remove(previous);
+        }
+        grid.add(waypoint);
+        final var id = waypoint.getId();
+        while (waypointsById.size() <= id) {
+            freeIds.set(waypointsById.size());
+            waypointsById.add(null);
+        }
+        waypointsById.set(id, waypoint);
+        freeIds.clear(id);
+        index(waypoint);
+    }
+
+    /**
+     * Moves a waypoint to where its current name and state belong in the
+     * name indexes.
+     */
+    private void index(Waypoint waypoint) {
+        final var entry = new NameEntry(waypoint.getName(), waypoint.isActive() && waypoint.hasName(), waypoint);
+        final var previous = nameEntries.put(waypoint.getId(), entry);
+        if (previous != null) {
+            if (previous.equals(entry)) {
+                return;
+            }
+            unindex(previous);
+        }
+        final var index = Collections.binarySearch(sortedWaypoints, entry, NAME_ORDER);
+        sortedWaypoints.add(index < 0 ? -index - 1 : index, entry);
+        if (entry.named()) {
+            namedWaypoints.computeIfAbsent(toKey(entry.name()), key -> new ArrayList<>(1)).add(waypoint);
+        }
+    }
+
+    private void unindex(NameEntry entry) {
+        final var index = Collections.binarySearch(sortedWaypoints, entry, NAME_ORDER);
+        if (index >= 0) {
+            sortedWaypoints.remove(index);
+        }
+        if (entry.named()) {
+            final var key = toKey(entry.name());
+            final var named = namedWaypoints.get(key);
+            if (named != null && named.remove(entry.waypoint()) && named.isEmpty()) {
+                namedWaypoints.remove(key);
+            }
+        }
+    }
+
+    private static String toKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private void changed(int id) {
+        removedIds.remove(id);
+        changedIds.add(id);
+    }
+
+    private void track(Waypoint waypoint) {
+        waypoint.setChangeListener(() -> {
+            index(waypoint);
+            journal.waypointChanged(waypoint);
+        });
     }
 
     public boolean isWaypoint(Location location) {
         var waypoint = getNearbyWaypoint(location);
-        return waypoint != null && waypoint.getLocation().equals(location);
+        return waypoint != null && waypoint.getPosition().equals(BlockPos.of(location));
     }
 
     public boolean isWaypoint(Block block) {
-        return isWaypoint(block.getLocation());
+        final var position = BlockPos.of(block);
+        final var waypoint = getWaypoint(block.getWorld(), position.getChunkKey());
+        return waypoint != null && waypoint.getPosition().equals(position);
     }
 
     public Stream<Waypoint> getAllWaypoints() {
-        return waypoints.values().stream();
+        return waypoints.values().stream().flatMap(chunks -> chunks.values().stream());
     }
 
     public Stream<Waypoint> getActiveWaypoints() {
@@ -109,6 +369,32 @@ public class WaypointMap {
     }
 
     public Stream<Waypoint> getNamedWaypoints() {
-        return getActiveWaypoints().filter(Waypoint::hasName);
+        return namedWaypoints.values().stream().flatMap(List::stream);
+    }
+
+    /**
+     * @return an active waypoint with this name, ignoring case, or
+     *         {@code null}
+     */
+    public Waypoint getNamedWaypoint(String name) {
+        final var named = namedWaypoints.get(toKey(name));
+        return named != null ? named.get(0) : null;
+    }
+
+    /**
+     * @return a read-only view of every waypoint, sorted by name
+     */
+    public List<Waypoint> getSortedWaypoints() {
+        return new AbstractList<>() {
+            @Override
+            public Waypoint get(int index) {
+                return sortedWaypoints.get(index).waypoint();
+            }
+
+            @Override
+            public int size() {
+                return sortedWaypoints.size();
+            }
+        };
     }
 }
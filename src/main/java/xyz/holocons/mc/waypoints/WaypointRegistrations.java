@@ -0,0 +1,204 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Which travelers have registered each waypoint, including travelers that are
+ * only on disk, as one {@link CompressedIntSet} of {@link PlayerIndex}
+ * indexes per waypoint, so a waypoint few players know stays small however
+ * many players there are. The reverse of {@link Traveler#getWaypoints()}.
+ * <p>
+ * It is saved next to the {@link PlayerIndex} whenever it changed, so loading
+ * does not read every stored traveler. It is only rebuilt from the store when
+ * that file is missing or unusable.
+ */
+public class WaypointRegistrations {
+
+    public static final String FILENAME = "registrations.dat";
+
+    private static final int MAGIC = 0x57485752; // "WHWR"
+    private static final int VERSION = 1;
+
+    private final PlayerIndex players;
+    private final Int2ObjectOpenHashMap<CompressedIntSet> travelers;
+    private boolean dirty;
+    // How many players were indexed when the snapshot was taken
+    private int playerCount;
+
+    public WaypointRegistrations() {
+        this.players = PlayerIndex.global();
+        this.travelers = new Int2ObjectOpenHashMap<>();
+    }
+
+    /**
+     * Builds the registrations from every stored traveler, to be saved on the
+     * next save. Must run on the I/O executor.
+     */
+    public static WaypointRegistrations build(TravelerStore travelerStore) throws IOException {
+        final var registrations = new WaypointRegistrations();
+        travelerStore.forEach((uniqueId, traveler) -> registrations.add(uniqueId, traveler.getWaypoints()));
+        registrations.dirty = true;
+        return registrations;
+    }
+
+    /**
+     * Reads the registrations saved by {@link #write(File)}. Must run on the
+     * I/O executor, once the {@link PlayerIndex} is loaded.
+     *
+     * @return the registrations, or {@code null} if there are none or they
+     *         were saved with other player indexes
+     */
+    public static WaypointRegistrations read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        final var registrations = new WaypointRegistrations();
+        final var players = registrations.players;
+        try (final var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            // The last player indexed when this was written must still have the same index
+            final var playerCount = in.readInt();
+            final var lastPlayer = new UUID(in.readLong(), in.readLong());
+            if (playerCount > players.size() || playerCount > 0 && !players.get(playerCount - 1).equals(lastPlayer)) {
+                return null;
+            }
+            final var waypointCount = in.readInt();
+            for (var i = 0; i < waypointCount; i++) {
+                final var waypointId = in.readInt();
+                final var size = in.readInt();
+                final var registered = new CompressedIntSet();
+                for (var j = 0; j < size; j++) {
+                    final var index = in.readInt();
+                    if (index < 0 || index >= playerCount) {
+                        return null;
+                    }
+                    registered.add(index);
+                }
+                if (!registered.isEmpty()) {
+                    registrations.travelers.put(waypointId, registered);
+                }
+            }
+        } catch (EOFException e) {
+            // Cut short, so rebuilt instead
+            return null;
+        }
+        return registrations;
+    }
+
+    /**
+     * Writes a {@link #snapshot()}. Must run on the I/O executor, after the
+     * {@link PlayerIndex} is saved.
+     */
+    public void write(File file) throws IOException {
+        FileStorage.writeAtomically(file, tempFile -> {
+            try (final var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                final var lastPlayer = playerCount > 0 ? players.get(playerCount - 1) : new UUID(0L, 0L);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(playerCount);
+                out.writeLong(lastPlayer.getMostSignificantBits());
+                out.writeLong(lastPlayer.getLeastSignificantBits());
+                out.writeInt(travelers.size());
+                for (final var entry : travelers.int2ObjectEntrySet()) {
+                    out.writeInt(entry.getIntKey());
+                    out.writeInt(entry.getValue().size());
+                    for (final var index : entry.getValue().toArray()) {
+                        out.writeInt(index);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a copy to be written on the I/O executor, or {@code null} if
+     *         nothing changed since the last one
+     */
+    public WaypointRegistrations snapshot() {
+        if (!dirty) {
+            return null;
+        }
+        final var copy = new WaypointRegistrations();
+        copy.playerCount = players.size();
+        travelers.int2ObjectEntrySet().forEach(entry -> copy.travelers.put(entry.getIntKey(),
+                entry.getValue().copy()));
+        dirty = false;
+        return copy;
+    }
+
+    /**
+     * Saves the registrations again with the next save, e.g. after one
+     * failed.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    public void add(UUID uniqueId, int waypointId) {
+        if (travelers.computeIfAbsent(waypointId, id -> new CompressedIntSet()).add(players.intern(uniqueId))) {
+            dirty = true;
+        }
+    }
+
+    public void add(UUID uniqueId, BitSet waypointIds) {
+        waypointIds.stream().forEach(waypointId -> add(uniqueId, waypointId));
+    }
+
+    public void remove(UUID uniqueId, int waypointId) {
+        final var index = players.indexOf(uniqueId);
+        final var registered = travelers.get(waypointId);
+        if (index == -1 || registered == null) {
+            return;
+        }
+        if (registered.remove(index)) {
+            dirty = true;
+        }
+        if (registered.isEmpty()) {
+            travelers.remove(waypointId);
+        }
+    }
+
+    public void remove(UUID uniqueId, BitSet waypointIds) {
+        waypointIds.stream().forEach(waypointId -> remove(uniqueId, waypointId));
+    }
+
+    /**
+     * Forgets a waypoint.
+     *
+     * @return the travelers that had registered it
+     */
+    public List<UUID> removeWaypoint(int waypointId) {
+        final var registered = travelers.remove(waypointId);
+        if (registered == null) {
+            return List.of();
+        }
+        dirty = true;
+        final var uniqueIds = new ArrayList<UUID>(registered.size());
+        registered.forEach(index -> uniqueIds.add(players.get(index)));
+        return uniqueIds;
+    }
+
+    /**
+     * @return how many travelers have registered the waypoint
+     */
+    public int count(int waypointId) {
+        final var registered = travelers.get(waypointId);
+        return registered != null ? registered.size() : 0;
+    }
+}
@@ -3,15 +3,33 @@ package xyz.holocons.mc.waypoints;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.time.Instant;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Display;
+import org.bukkit.entity.Entity;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public final class WaypointsPlugin extends JavaPlugin {
 
+    private static final String MAINTENANCE_RUNNING = "A restore or compaction is still running";
+
     private FileConfiguration config;
     private HologramMap hologramMap;
     private TravelerMap travelerMap;
@@ -19,17 +37,46 @@ public final class WaypointsPlugin extends JavaPlugin {
     private CampBannerMap campBannerMap;
     private Token token;
     private TeleportCharge teleportCharge;
+    private ExecutorService ioExecutor;
+    private Journal journal;
+    private volatile Storage storage;
+    private BackupRepository backupRepository;
+    private CompletableFuture<LoadedData> pendingLoad;
+    // Server thread
+    private CompletableFuture<Void> maintenance;
+
+    private Executor mainThreadExecutor;
+
+    private record LoadedData(HashMap<Integer, Waypoint> waypoints, HashMap<BlockPos, UUID> campBanners,
+            HashMap<UUID, CampBannerMap.BannerDesign> bannerDesigns, WaypointRegistrations registrations,
+            HashMap<UUID, Traveler> travelers) {
+    }
 
     @Override
     public void onLoad() {
         saveDefaultConfig();
         loadConfig();
-        hologramMap = new HologramMap();
-        travelerMap = new TravelerMap();
-        waypointMap = new WaypointMap();
+        ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, getName() + " I/O");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Drops tasks once disabled, so continuations of late I/O never touch the unloaded data
+        mainThreadExecutor = runnable -> {
+            if (isEnabled()) {
+                Bukkit.getScheduler().runTask(this, runnable);
+            }
+        };
+        journal = new Journal(this);
+        backupRepository = new BackupRepository(getDataFolder());
+        hologramMap = new HologramMap(getHologramStyle());
+        travelerMap = new TravelerMap(this);
+        waypointMap = new WaypointMap(journal);
         campBannerMap = new CampBannerMap(this);
         token = new Token(this);
         teleportCharge = new TeleportCharge(this);
+        // Parsing does not need the worlds, so it overlaps with them loading
+        pendingLoad = readData(List.of());
     }
 
     @Override
@@ -48,11 +95,41 @@ public final class WaypointsPlugin extends JavaPlugin {
         getCommand("givewpcharge").setExecutor(commandHandler);
         final var eventListener = new EventListener(this);
         Bukkit.getPluginManager().registerEvents(eventListener, this);
+        if (getAutosaveInterval() > 0) {
+            new AutosaveTask(this);
+        }
+        if (journal.isEnabled()) {
+            Bukkit.getScheduler().runTaskTimer(this, journal::flush, 1L, 1L);
+        }
+        Bukkit.getScheduler().runTaskTimer(this, hologramMap::flush, 1L, 1L);
+        Bukkit.getScheduler().runTaskTimer(this, travelerMap::evictIdle, 30 * 20L, 30 * 20L);
+        if (getBackupInterval() > 0) {
+            final var period = getBackupInterval() * 60L * 20L;
+            Bukkit.getScheduler().runTaskTimer(this, this::backupData, period, period);
+        }
     }
 
     @Override
     public void onDisable() {
         saveData();
+        journal.close();
+        ioExecutor.execute(() -> {
+            try {
+                if (storage != null) {
+                    storage.close();
+                }
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Failed to close storage", e);
+            }
+        });
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(getShutdownTimeout(), TimeUnit.SECONDS)) {
+                getLogger().warning("Timed out waiting for data to be saved");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public void loadConfig() {
@@ -61,40 +138,505 @@ public final class WaypointsPlugin extends JavaPlugin {
         getLogger().info("Config loaded");
     }
 
-    public void backupData() {
-        final var zipFile = new File(getDataFolder(), "backup-" + Instant.now().toString() + ".zip");
-        final var travelerFile = new File(getDataFolder(), TravelerMap.FILENAME);
-        final var waypointFile = new File(getDataFolder(), WaypointMap.FILENAME);
+    /**
+     * Copies all data in memory, then serializes it into an incremental backup
+     * on the I/O executor and prunes the backups the retention policy no
+     * longer keeps. Unsaved changes are included without being saved.
+     */
+    public CompletableFuture<Void> backupData() {
+        if (isMaintaining()) {
+            getLogger().info("Skipping backup while the data is being replaced");
+            return CompletableFuture.completedFuture(null);
+        }
+        final var retention = getBackupRetention();
+        final var format = getConfiguredStorageFormat();
+        final var compressionLevel = getBackupCompressionLevel();
+        final var snapshot = DataSnapshot.captureAll(this);
+        return CompletableFuture.runAsync(() -> {
+            try (final var writer = backupRepository.begin(compressionLevel)) {
+                snapshot.backup(writer, getDataFolder(), format, storage.getTravelerStore());
+                final var id = writer.commit();
+                final var pruned = backupRepository.prune(retention);
+                getLogger().info(String.format("Backup %s written, %d old backups pruned", id, pruned));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                travelerMap.invalidateBackupChanges();
+                getLogger().log(Level.SEVERE, "Failed to write backup", throwable);
+            }
+        });
+    }
+
+    public CompletableFuture<List<String>> listBackups() {
+        return CompletableFuture.supplyAsync(backupRepository::list, ioExecutor);
+    }
+
+    /**
+     * Replaces all data with the backup {@code id} on the I/O executor, then
+     * reloads it on the server thread. The current data is backed up first,
+     * and is only moved aside once the whole backup has been rebuilt and
+     * checked, and only deleted once the backup has been opened. If anything
+     * fails, the current data is put back and reopened.
+     *
+     * @return completes once reloaded, with whether there is such a backup
+     * @see #maintain(MaintenanceTask)
+     */
+    public CompletableFuture<Boolean> restoreData(String id) {
+        return listBackups().thenComposeAsync(backups -> backups.contains(id)
+                ? restore(id).thenApply(result -> true)
+                : CompletableFuture.completedFuture(false), mainThreadExecutor);
+    }
+
+    private CompletableFuture<Void> restore(String id) {
+        if (isMaintaining()) {
+            return CompletableFuture.failedFuture(new IllegalStateException(MAINTENANCE_RUNNING));
+        }
+        final var format = getConfiguredStorageFormat();
+        final var mapped = isTravelerStoreMapped();
+        final var sqlite = isSqlBackend();
+        final var compressionLevel = getBackupCompressionLevel();
+        final var snapshot = DataSnapshot.captureAll(this);
+        final var checkpoint = journal.rotate();
+        return maintain(() -> {
+            try (final var writer = backupRepository.begin(compressionLevel)) {
+                snapshot.backup(writer, getDataFolder(), format, storage.getTravelerStore());
+                getLogger().info("Current data backed up as " + writer.commit());
+            }
+            backupRepository.stage(id);
+            final var replaced = storage.getFiles();
+            storage.close();
+            storage = null;
+            try {
+                backupRepository.install(replaced, () -> openRestored(format, mapped, sqlite));
+            } catch (IOException | RuntimeException e) {
+                // The previous files are back in place
+                try {
+                    prepareStorage(format, mapped, sqlite);
+                } catch (IOException | RuntimeException reopenException) {
+                    e.addSuppressed(reopenException);
+                }
+                throw e;
+            }
+            Files.deleteIfExists(getRegistrationsFile().toPath());
+            journal.deleteThrough(checkpoint);
+            getLogger().info("Restored backup " + id);
+        }).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                getLogger().log(Level.SEVERE, "Failed to restore backup " + id + ", keeping the current data",
+                        throwable);
+            }
+        });
+    }
+
+    /**
+     * Opens the files of a restored backup, closing them again if that fails
+     * so they can be removed.
+     */
+    private void openRestored(StorageFormat format, boolean mapped, boolean sqlite) throws IOException {
         try {
-            final var writer = new ZipWriter(zipFile);
-            writer.addFile(travelerFile, waypointFile);
-            writer.close();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            prepareStorage(format, mapped, sqlite);
+        } catch (IOException | RuntimeException e) {
+            if (storage != null) {
+                try {
+                    storage.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                storage = null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Renumbers waypoints densely, keeping their order, and rewrites the
+     * registered waypoints of every traveler in one pass over the store on
+     * the I/O executor, then reloads the data on the server thread. The
+     * current data is backed up first.
+     *
+     * @return completes once reloaded
+     * @see #maintain(MaintenanceTask)
+     */
+    public CompletableFuture<Void> compactData() {
+        if (isMaintaining()) {
+            return CompletableFuture.failedFuture(new IllegalStateException(MAINTENANCE_RUNNING));
         }
-        getLogger().info("Backup written");
+        final var compressionLevel = getBackupCompressionLevel();
+        final var format = getConfiguredStorageFormat();
+        travelerMap.cancelTasks();
+        final var compactIds = waypointMap.getCompactIds();
+        final var removedIds = new HashSet<>(waypointMap.getRemovedIds());
+        final var snapshot = DataSnapshot.captureAll(this);
+        final var checkpoint = journal.rotate();
+        final var waypoints = new HashMap<Integer, Waypoint>();
+        for (final var waypoint : snapshot.waypoints().values()) {
+            final var id = compactIds[waypoint.getId()];
+            waypoints.put(id, waypoint.copy(id));
+            removedIds.add(waypoint.getId());
+        }
+        removedIds.removeAll(waypoints.keySet());
+        final var compacted = new DataSnapshot(waypoints, waypoints.keySet(), removedIds, snapshot.travelers(),
+                snapshot.campBanners(), snapshot.bannerDesigns());
+        final Consumer<Traveler> renumber = traveler -> {
+            final var registered = traveler.getWaypoints();
+            final var renumbered = new BitSet();
+            registered.stream()
+                    .filter(id -> id < compactIds.length && compactIds[id] >= 0)
+                    .forEach(id -> renumbered.set(compactIds[id]));
+            if (!renumbered.equals(registered)) {
+                traveler.setWaypoints(renumbered);
+            }
+        };
+        return maintain(() -> {
+            try (final var writer = backupRepository.begin(compressionLevel)) {
+                snapshot.backup(writer, getDataFolder(), format, storage.getTravelerStore());
+                getLogger().info("Current data backed up as " + writer.commit());
+            }
+            storage.save(compacted);
+            storage.getTravelerStore().updateAll(renumber);
+            Files.deleteIfExists(getRegistrationsFile().toPath());
+            journal.deleteThrough(checkpoint);
+            getLogger().info(String.format("Compacted %d waypoint ids into %d", compactIds.length, waypoints.size()));
+        }).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                getLogger().log(Level.SEVERE, "Failed to compact waypoint ids", throwable);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface MaintenanceTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs a task that replaces the stored data on the I/O executor, then
+     * reloads it on the server thread. Until then nothing is saved, backed up
+     * or journaled, and the reload drops any change made meanwhile, since the
+     * data it applied to was replaced. If the task fails, the current data is
+     * kept along with those changes, which are saved right away since the
+     * journal missed them.
+     *
+     * @return completes on the server thread once reloaded
+     */
+    private CompletableFuture<Void> maintain(MaintenanceTask task) {
+        journal.suspend();
+        final var future = CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor).handleAsync((result, throwable) -> {
+            if (throwable != null) {
+                endMaintenance();
+                travelerMap.invalidateBackupChanges();
+                saveData();
+                return CompletableFuture.<Void>failedFuture(unwrap(throwable));
+            }
+            return readData(Bukkit.getOnlinePlayers().stream().map(Entity::getUniqueId).toList())
+                    .<Void>handleAsync((data, readThrowable) -> {
+                        endMaintenance();
+                        if (readThrowable != null) {
+                            throw new CompletionException(unwrap(readThrowable));
+                        }
+                        applyData(data);
+                        return null;
+                    }, mainThreadExecutor);
+        }, mainThreadExecutor).thenCompose(Function.identity());
+        maintenance = future;
+        return future;
+    }
+
+    private void endMaintenance() {
+        maintenance = null;
+        journal.resume();
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
     }
 
+    /**
+     * @return whether a restore or compaction is still running, see
+     *         {@link #maintain(MaintenanceTask)}
+     */
+    public boolean isMaintaining() {
+        return maintenance != null;
+    }
+
+    /**
+     * Attaches the data read in {@link #onLoad()} the first time, or reads it
+     * again. Locations are resolved to their worlds here, so this must only
+     * be called once the worlds are loaded.
+     */
     public void loadData() {
-        try {
-            travelerMap.loadTravelers(this);
-            waypointMap.loadWaypoints(this);
-            loadCampBannerData();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        final CompletableFuture<LoadedData> load;
+        if (pendingLoad != null) {
+            load = pendingLoad;
+            pendingLoad = null;
+        } else {
+            journal.flush();
+            load = readData(Bukkit.getOnlinePlayers().stream().map(Entity::getUniqueId).toList());
         }
+        applyData(load.join());
+    }
+
+    private void applyData(LoadedData data) {
+        travelerMap.loadTravelers(data.travelers());
+        travelerMap.loadRegistrations(data.registrations());
+        waypointMap.loadWaypoints(resolveWaypoints(data.waypoints()));
+        loadCampBannerData(resolveCampBanners(data.campBanners()), data.bannerDesigns());
+        final var replayed = journal.replay();
+        if (replayed > 0) {
+            getLogger().info(String.format("Replayed %d journal records", replayed));
+            saveData();
+        }
+        snapshotMissingBanners();
         getLogger().info("Data loaded");
     }
 
-    public void saveData() {
+    /**
+     * Waypoints saved before banners were snapshotted get their snapshot once
+     * their chunk has loaded, so loading never blocks on chunks.
+     */
+    private void snapshotMissingBanners() {
+        waypointMap.getAllWaypoints().filter(waypoint -> waypoint.getBanner() == null).toList()
+                .forEach(waypoint -> waypoint.getWorld().getChunkAtAsync(waypoint.getLocation())
+                        .thenRun(() -> {
+                            if (waypointMap.getWaypoint(waypoint.getWorld(), waypoint.getChunkKey()) == waypoint
+                                    && waypoint.getBanner() == null) {
+                                waypoint.refreshBanner();
+                            }
+                        }));
+    }
+
+    /**
+     * Reads all data on the I/O executor, along with the travelers of the
+     * given players and of the players the journal changes, so neither the
+     * load nor the replay has to read any on the server thread.
+     */
+    private CompletableFuture<LoadedData> readData(List<UUID> onlinePlayers) {
+        final var format = getConfiguredStorageFormat();
+        final var mapped = isTravelerStoreMapped();
+        final var sqlite = isSqlBackend();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                // Before anything is read, so players keep the indexes they had
+                PlayerIndex.global().load(new File(getDataFolder(), PlayerIndex.FILENAME));
+                prepareStorage(format, mapped, sqlite);
+                travelerMap.clearPrefetched();
+                final var travelers = new HashMap<UUID, Traveler>();
+                for (final var uniqueId : journal.getTravelers()) {
+                    travelers.put(uniqueId, travelerMap.readStored(uniqueId));
+                }
+                for (final var uniqueId : onlinePlayers) {
+                    travelers.computeIfAbsent(uniqueId, travelerMap::readStored);
+                }
+                final var campBanners = new HashMap<BlockPos, UUID>();
+                final var bannerDesigns = new HashMap<UUID, CampBannerMap.BannerDesign>();
+                storage.loadCampBannerData(campBanners, bannerDesigns);
+                var registrations = WaypointRegistrations.read(getRegistrationsFile());
+                if (registrations == null) {
+                    registrations = WaypointRegistrations.build(storage.getTravelerStore());
+                    getLogger().info("Rebuilt waypoint registrations from every stored traveler");
+                }
+                return new LoadedData(storage.loadWaypoints(), campBanners, bannerDesigns, registrations,
+                        travelers);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor);
+    }
+
+    private HashMap<Integer, Waypoint> resolveWaypoints(HashMap<Integer, Waypoint> waypoints) {
+        waypoints.values().removeIf(waypoint -> {
+            if (waypoint.resolveWorld()) {
+                return false;
+            }
+            getLogger().warning("Skipping waypoint " + waypoint.getId() + " in a world that is not loaded: "
+                    + waypoint.getPosition());
+            return true;
+        });
+        return waypoints;
+    }
+
+    /**
+     * Camp banners are keyed by position, so the map is rebuilt with the
+     * resolved positions.
+     */
+    private HashMap<BlockPos, UUID> resolveCampBanners(HashMap<BlockPos, UUID> campBanners) {
+        final var resolved = new HashMap<BlockPos, UUID>(campBanners.size());
+        campBanners.forEach((position, owner) -> {
+            final var resolvedPosition = position.resolve();
+            if (resolvedPosition.getWorld() != null) {
+                resolved.put(resolvedPosition, owner);
+            } else {
+                getLogger().warning("Skipping camp banner in a world that is not loaded: " + position);
+            }
+        });
+        return resolved;
+    }
+
+    /**
+     * Opens the configured storage, first moving over any data left in the
+     * other backend, format or traveler store, e.g. after the config was
+     * changed by hand. Runs on the I/O executor.
+     */
+    private void prepareStorage(StorageFormat format, boolean mapped, boolean sqlite) throws IOException {
+        final var dataFolder = getDataFolder();
+        if (storage != null) {
+            storage.close();
+        }
+        final var fileStorage = FileStorage.open(dataFolder, format, mapped, getLogger());
+        final var databaseFile = new File(dataFolder, SqlStorage.FILENAME);
+        if (sqlite) {
+            final var sqlStorage = new SqlStorage(databaseFile, getLogger());
+            if (!sqlStorage.hasData() && fileStorage.hasData()) {
+                final var travelers = DataConverter.copy(fileStorage, sqlStorage);
+                fileStorage.delete();
+                getLogger().info(String.format("Moved data and %d travelers into %s", travelers,
+                        databaseFile.getName()));
+            } else {
+                fileStorage.close();
+            }
+            storage = sqlStorage;
+        } else {
+            if (databaseFile.exists()) {
+                final var sqlStorage = new SqlStorage(databaseFile, getLogger());
+                if (!fileStorage.hasData()) {
+                    final var travelers = DataConverter.copy(sqlStorage, fileStorage);
+                    sqlStorage.delete();
+                    getLogger().info(String.format("Moved data and %d travelers out of %s", travelers,
+                            databaseFile.getName()));
+                } else {
+                    sqlStorage.close();
+                    getLogger().warning("Ignoring " + databaseFile.getName() + " because files already exist");
+                }
+            }
+            storage = fileStorage;
+        }
+
+        final var legacyFile = new File(dataFolder, TravelerMap.FILENAME);
+        if (legacyFile.exists()) {
+            final var travelers = DataConverter.migrateLegacyTravelers(legacyFile, storage.getTravelerStore());
+            Files.deleteIfExists(getRegistrationsFile().toPath());
+            getLogger().info(String.format("Migrated %d travelers from %s", travelers, legacyFile.getName()));
+        }
+    }
+
+    public CompletableFuture<Void> convertData(StorageFormat target) {
+        saveData();
+        return CompletableFuture.runAsync(() -> {
+            if (!(storage instanceof FileStorage fileStorage)) {
+                throw new IllegalStateException("Only file storage can be converted");
+            }
+            final var source = fileStorage.getFormat();
+            if (source == target) {
+                return;
+            }
+            try {
+                final var travelers = fileStorage.convert(target);
+                getLogger().info(String.format("Converted data and %d travelers from %s to %s", travelers,
+                        source, target));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                getLogger().log(Level.SEVERE, "Failed to convert data", throwable);
+            } else if (isEnabled()) {
+                Bukkit.getScheduler().runTask(this, () -> {
+                    config.set("storage.format", target.name().toLowerCase());
+                    saveConfig();
+                });
+            }
+        });
+    }
+
+    public boolean hasUnsavedData() {
+        return waypointMap.isDirty() || travelerMap.isDirty() || campBannerMap.isDirty();
+    }
+
+    /**
+     * Saves every change on the I/O executor. While the data is being
+     * replaced, nothing is saved and this completes once that is done.
+     */
+    public CompletableFuture<Void> saveData() {
+        if (isMaintaining()) {
+            return maintenance.handle((result, throwable) -> null);
+        }
+        final var checkpoint = journal.rotate();
+        final var snapshot = DataSnapshot.capture(this);
+        final var registrations = travelerMap.snapshotRegistrations();
+        final var playersFile = new File(getDataFolder(), PlayerIndex.FILENAME);
+        if (snapshot.isEmpty() && registrations == null) {
+            return CompletableFuture.runAsync(() -> {
+                savePlayers(playersFile);
+                journal.deleteThrough(checkpoint);
+            }, ioExecutor);
+        }
+        return CompletableFuture.runAsync(() -> {
+            final var playersSaved = savePlayers(playersFile);
+            try {
+                if (!snapshot.isEmpty()) {
+                    storage.save(snapshot);
+                }
+                // Indexes the players file does not have yet would make it unreadable
+                if (registrations != null && !playersSaved) {
+                    throw new IOException("Player indexes were not saved");
+                }
+                if (registrations != null) {
+                    registrations.write(getRegistrationsFile());
+                }
+            } catch (IOException e) {
+                journal.retain();
+                throw new UncheckedIOException(e);
+            }
+            journal.deleteThrough(checkpoint);
+        }, ioExecutor).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                getLogger().log(Level.SEVERE, "Failed to save data", throwable);
+                if (isEnabled()) {
+                    Bukkit.getScheduler().runTask(this, () -> {
+                        snapshot.restoreDirty(this);
+                        if (registrations != null) {
+                            travelerMap.markRegistrationsDirty();
+                        }
+                        journal.release();
+                    });
+                }
+            } else {
+                getLogger().info("Data saved");
+            }
+        });
+    }
+
+    /**
+     * Only keeps indexes stable across restarts, so a failure is not fatal.
+     *
+     * @return whether every index is saved
+     */
+    private boolean savePlayers(File file) {
         try {
-            waypointMap.saveWaypoints(this);
-            travelerMap.saveTravelers(this);
-            saveCampBannerData();
+            PlayerIndex.global().save(file);
+            return true;
         } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            getLogger().log(Level.WARNING, "Failed to save player indexes", e);
+            return false;
         }
-        getLogger().info("Data saved");
+    }
+
+    /**
+     * Saved with the player indexes it refers to. Deleting it makes the next
+     * load rebuild it from the stored travelers.
+     */
+    private File getRegistrationsFile() {
+        return new File(getDataFolder(), WaypointRegistrations.FILENAME);
     }
 
     public int getMaxCharges() {
@@ -145,6 +687,100 @@ public final class WaypointsPlugin extends JavaPlugin {
         return config.getString("teleport.particle-effect");
     }
 
+    public int getAutosaveInterval() {
+        return config.getInt("storage.autosave-interval", 60);
+    }
+
+    public int getTravelerEvictDelay() {
+        return config.getInt("storage.traveler-evict-delay", 300);
+    }
+
+    /**
+     * @return blocks within which waypoint holograms are shown, or {@code 0}
+     *         to show them in every chunk the client has loaded
+     */
+    public int getHologramRadius() {
+        return config.getInt("hologram.visibility-radius", 0);
+    }
+
+    /**
+     * @return blocks within which holograms show the full name, or {@code 0}
+     *         to always show it
+     */
+    public int getHologramDetailRadius() {
+        return config.getInt("hologram.detail-radius", 0);
+    }
+
+    private Hologram.Style getHologramStyle() {
+        final var backendName = config.getString("hologram.backend", "armor-stand");
+        var backend = Hologram.Backend.ARMOR_STAND;
+        try {
+            backend = Hologram.Backend.valueOf(backendName.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown hologram backend " + backendName + ", using armor-stand");
+        }
+        final var billboardName = config.getString("hologram.billboard", "center");
+        var billboard = Display.Billboard.CENTER;
+        try {
+            billboard = Display.Billboard.valueOf(billboardName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown hologram billboard " + billboardName + ", using center");
+        }
+        return new Hologram.Style(backend, billboard, (float) config.getDouble("hologram.view-range", 1.0),
+                config.getBoolean("hologram.text-shadow", true));
+    }
+
+    public int getTravelerCacheSize() {
+        return config.getInt("storage.traveler-cache-size", 1000);
+    }
+
+    public long getShutdownTimeout() {
+        return config.getLong("storage.shutdown-timeout", 30);
+    }
+
+    public long getLoginTimeout() {
+        return config.getLong("storage.login-timeout", 5);
+    }
+
+    private boolean isSqlBackend() {
+        return config.getString("storage.backend", "files").equalsIgnoreCase("sqlite");
+    }
+
+    private boolean isTravelerStoreMapped() {
+        return config.getString("storage.traveler-store", "files").equalsIgnoreCase("mapped");
+    }
+
+    public int getBackupInterval() {
+        return config.getInt("backup.interval", 60);
+    }
+
+    private int getBackupCompressionLevel() {
+        return config.getInt("backup.compression-level", 6);
+    }
+
+    private BackupRepository.Retention getBackupRetention() {
+        return new BackupRepository.Retention(config.getInt("backup.keep-hourly", 24),
+                config.getInt("backup.keep-daily", 7), config.getInt("backup.keep-weekly", 4));
+    }
+
+    public boolean isJournalEnabled() {
+        return config.getBoolean("storage.journal", true);
+    }
+
+    public int getJournalCompactSize() {
+        return config.getInt("storage.journal-compact-size", 1024);
+    }
+
+    private StorageFormat getConfiguredStorageFormat() {
+        final var name = config.getString("storage.format", "json");
+        final var format = StorageFormat.fromString(name);
+        if (format == null) {
+            getLogger().warning("Unknown storage format " + name + ", using json");
+            return StorageFormat.JSON;
+        }
+        return format;
+    }
+
     public List<String> getHomeWorlds() {
         return config.getStringList("world.home");
     }
@@ -185,13 +821,33 @@ public final class WaypointsPlugin extends JavaPlugin {
         return teleportCharge;
     }
 
-    private void loadCampBannerData() throws IOException {
-        campBannerMap.loadCampBanners(this);
-        getLogger().info("Camp banner data loaded");
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
     }
 
-    private void saveCampBannerData() throws IOException {
-        campBannerMap.saveCampBanners(this);
-        getLogger().info("Camp banner data saved");
+    /**
+     * Runs tasks on the server thread, e.g. to continue with the result of
+     * I/O, and drops them once the plugin is disabled.
+     */
+    public Executor getMainThreadExecutor() {
+        return mainThreadExecutor;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Must only be used on the I/O executor. Only replaced there, so a read or
+     * write queued there always sees the current backend.
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
+    private void loadCampBannerData(Map<BlockPos, UUID> campBanners,
+            Map<UUID, CampBannerMap.BannerDesign> bannerDesigns) {
+        campBannerMap.loadCampBanners(campBanners, bannerDesigns);
+        getLogger().info("Camp banner data loaded");
     }
 }
@@ -0,0 +1,142 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Gives every world a small index for {@link BlockPos}. Worlds are only known
+ * by name and UUID, and looked up when needed, so an unloaded world is never
+ * kept reachable. Data read before the worlds load may only know one of the
+ * two, so the same world can have two indexes until {@link BlockPos#resolve()}
+ * is used. Safe to use from any thread.
+ */
+public class WorldIndex {
+
+    private static final WorldIndex GLOBAL = new WorldIndex();
+    private static final UUID UNKNOWN_WORLD_ID = new UUID(0, 0);
+
+    private static class Entry {
+        private String name;
+        private UUID uid;
+    }
+
+    private final Object2IntOpenHashMap<String> byName;
+    private final Object2IntOpenHashMap<UUID> byId;
+    private final ArrayList<Entry> worlds;
+
+    public WorldIndex() {
+        this.byName = new Object2IntOpenHashMap<>();
+        this.byName.defaultReturnValue(-1);
+        this.byId = new Object2IntOpenHashMap<>();
+        this.byId.defaultReturnValue(-1);
+        this.worlds = new ArrayList<>();
+    }
+
+    /**
+     * @return the table shared by everything in memory
+     */
+    public static WorldIndex global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the index of the world, preferring the one with its UUID
+     */
+    public synchronized int intern(World world) {
+        final var uid = world.getUID();
+        final var index = byId.getInt(uid);
+        if (index != -1) {
+            return index;
+        }
+        final var named = byName.getInt(world.getName());
+        if (named != -1 && worlds.get(named).uid == null) {
+            // First time this world is seen loaded, so learn its UUID
+            worlds.get(named).uid = uid;
+            byId.put(uid, named);
+            return named;
+        }
+        return add(world.getName(), uid);
+    }
+
+    public synchronized int intern(String name) {
+        final var index = byName.getInt(name);
+        return index != -1 ? index : add(name, null);
+    }
+
+    public synchronized int intern(UUID uid) {
+        final var index = byId.getInt(uid);
+        return index != -1 ? index : add(null, uid);
+    }
+
+    private int add(String name, UUID uid) {
+        final var entry = new Entry();
+        entry.name = name;
+        entry.uid = uid;
+        final var index = worlds.size();
+        worlds.add(entry);
+        if (name != null) {
+            byName.putIfAbsent(name, index);
+        }
+        if (uid != null) {
+            byId.putIfAbsent(uid, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the world, or {@code null} while it is not loaded
+     */
+    public World getWorld(int index) {
+        final String name;
+        final UUID uid;
+        synchronized (this) {
+            final var entry = worlds.get(index);
+            name = entry.name;
+            uid = entry.uid;
+        }
+        return uid != null ? Bukkit.getWorld(uid) : Bukkit.getWorld(name);
+    }
+
+    /**
+     * @return the name of the world, or {@code null} if it was only ever
+     *         known by UUID and is not loaded
+     */
+    public String getName(int index) {
+        synchronized (this) {
+            final var name = worlds.get(index).name;
+            if (name != null) {
+                return name;
+            }
+        }
+        final var world = getWorld(index);
+        return world != null ? world.getName() : null;
+    }
+
+    /**
+     * @return the UUID of the world, or the nil UUID if it was only ever
+     *         known by name and is not loaded
+     */
+    public UUID getUID(int index) {
+        synchronized (this) {
+            final var uid = worlds.get(index).uid;
+            if (uid != null) {
+                return uid;
+            }
+        }
+        final var world = getWorld(index);
+        return world != null ? world.getUID() : UNKNOWN_WORLD_ID;
+    }
+
+    /**
+     * @return the name, or the UUID if the name is not known
+     */
+    public synchronized String describe(int index) {
+        final var entry = worlds.get(index);
+        return entry.name != null ? entry.name : String.valueOf(entry.uid);
+    }
+}
@@ -0,0 +1,160 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BackupRepositoryTest {
+
+    @TempDir
+    File dataFolder;
+
+    private File getManifestFile(String id) {
+        return new File(new File(new File(dataFolder, BackupRepository.DIRECTORY), "manifests"), id + ".manifest");
+    }
+
+    private List<String> readManifest(String id) throws IOException {
+        return Files.readAllLines(getManifestFile(id).toPath(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readStaged(String name) throws IOException {
+        return Files.readAllBytes(new File(new File(new File(dataFolder, BackupRepository.DIRECTORY), "restore"),
+                name).toPath());
+    }
+
+    private boolean isStaged(String name) {
+        return new File(new File(new File(dataFolder, BackupRepository.DIRECTORY), "restore"), name).exists();
+    }
+
+    private long countChunks() throws IOException {
+        final var chunks = new File(new File(dataFolder, BackupRepository.DIRECTORY), "chunks").toPath();
+        try (final var paths = Files.walk(chunks)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        final var bytes = new byte[length];
+        new SplittableRandom(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String backup(BackupRepository repository, List<File> files, List<byte[]> contents)
+            throws IOException {
+        try (final var writer = repository.begin(1)) {
+            for (var i = 0; i < files.size(); i++) {
+                final var content = contents.get(i);
+                writer.addEntry(files.get(i), outputStream -> outputStream.write(content));
+            }
+            return writer.commit();
+        }
+    }
+
+    @Test
+    void writesOnlyChangesSinceTheParent() throws IOException {
+        final var repository = new BackupRepository(dataFolder);
+        final var waypoints = new File(dataFolder, "waypoints.bin");
+        final var travelers = new File(dataFolder, "travelers");
+        final var kept = new File(travelers, "kept.bin");
+        final var removed = new File(travelers, "removed.bin");
+
+        final var first = backup(repository, List.of(waypoints, kept, removed),
+                List.of(randomBytes(1, 100), randomBytes(2, 200), randomBytes(3, 300)));
+        final var firstManifest = readManifest(first);
+        assertEquals(3, firstManifest.size());
+        assertTrue(firstManifest.stream().noneMatch(line -> line.startsWith("parent\t")));
+
+        final String second;
+        try (final var writer = repository.begin(1)) {
+            assertTrue(writer.hasPrevious(kept));
+            writer.keepAll(travelers);
+            writer.remove(removed);
+            writer.addEntry(waypoints, outputStream -> outputStream.write(randomBytes(4, 100)));
+            second = writer.commit();
+        }
+        final var secondManifest = readManifest(second);
+        assertEquals(3, secondManifest.size());
+        assertEquals("parent\t" + first, secondManifest.get(0));
+        assertEquals("-\ttravelers/removed.bin", secondManifest.get(1));
+        assertTrue(secondManifest.get(2).startsWith("100\twaypoints.bin\t"));
+        assertEquals(List.of(first, second), repository.list());
+
+        repository.stage(second);
+        assertArrayEquals(randomBytes(4, 100), readStaged("waypoints.bin"));
+        assertArrayEquals(randomBytes(2, 200), readStaged("travelers/kept.bin"));
+        assertFalse(isStaged("travelers/removed.bin"));
+
+        repository.stage(first);
+        assertArrayEquals(randomBytes(1, 100), readStaged("waypoints.bin"));
+        assertArrayEquals(randomBytes(3, 300), readStaged("travelers/removed.bin"));
+    }
+
+    @Test
+    void leavesUnchangedFilesOutOfTheManifest() throws IOException {
+        final var repository = new BackupRepository(dataFolder);
+        final var files = List.of(new File(dataFolder, "a.bin"), new File(dataFolder, "b.bin"));
+        final var contents = List.of(randomBytes(1, 5000), randomBytes(2, 5000));
+        final var first = backup(repository, files, contents);
+        final var second = backup(repository, files, contents);
+
+        assertEquals(List.of("parent\t" + first), readManifest(second));
+        repository.stage(second);
+        assertArrayEquals(contents.get(1), readStaged("b.bin"));
+    }
+
+    @Test
+    void storesOnlyTheChunksAroundAnInsertion() throws IOException {
+        final var repository = new BackupRepository(dataFolder);
+        final var file = new File(dataFolder, "large.bin");
+        final var content = randomBytes(5, 512 * 1024);
+        backup(repository, List.of(file), List.of(content));
+        final var chunks = countChunks();
+
+        final var inserted = new byte[content.length + 1];
+        System.arraycopy(content, 0, inserted, 0, content.length / 2);
+        inserted[content.length / 2] = 42;
+        System.arraycopy(content, content.length / 2, inserted, content.length / 2 + 1,
+                content.length - content.length / 2);
+        final var second = backup(repository, List.of(file), List.of(inserted));
+
+        assertTrue(chunks > 8);
+        assertTrue(countChunks() - chunks <= 2);
+        repository.stage(second);
+        assertArrayEquals(inserted, readStaged("large.bin"));
+    }
+
+    @Test
+    void pruneRebasesKeptBackups() throws IOException {
+        final var repository = new BackupRepository(dataFolder);
+        final var a = new File(dataFolder, "a.bin");
+        final var b = new File(dataFolder, "b.bin");
+        final var ids = new ArrayList<String>();
+        ids.add(backup(repository, List.of(a, b), List.of(randomBytes(1, 1000), randomBytes(2, 1000))));
+        ids.add(backup(repository, List.of(a, b), List.of(randomBytes(3, 1000), randomBytes(2, 1000))));
+        ids.add(backup(repository, List.of(a), List.of(randomBytes(4, 1000))));
+
+        assertEquals(2, repository.prune(new BackupRepository.Retention(0, 0, 0)));
+
+        final var latest = ids.get(2);
+        assertEquals(List.of(latest), repository.list());
+        final var manifest = readManifest(latest);
+        assertEquals(1, manifest.size());
+        assertTrue(manifest.get(0).startsWith("1000\ta.bin\t"));
+        repository.stage(latest);
+        assertArrayEquals(randomBytes(4, 1000), readStaged("a.bin"));
+        assertFalse(isStaged("b.bin"));
+        assertEquals(1, countChunks());
+    }
+}
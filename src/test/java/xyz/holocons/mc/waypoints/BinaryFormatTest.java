@@ -0,0 +1,100 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BinaryFormatTest {
+
+    private static final UUID WORLD = UUID.randomUUID();
+
+    @TempDir
+    File directory;
+
+    @Test
+    void roundTripsTraveler() throws IOException {
+        final var waypoints = new BitSet();
+        waypoints.set(0);
+        waypoints.set(63);
+        waypoints.set(700);
+        final var traveler = new Traveler(3, 7, BlockPos.of(WORLD, -120, 64, 33_000), null, waypoints);
+
+        final var file = new File(directory, "traveler.bin");
+        try (final var writer = new BinaryWriter(file)) {
+            writer.writeTravelerFile(traveler);
+        }
+        final Traveler read;
+        try (final var reader = new BinaryReader(file)) {
+            read = reader.readTravelerFile();
+        }
+
+        assertEquals(3, read.getCharges());
+        assertEquals(7, read.getTokens());
+        assertEquals(traveler.getHome(), read.getHome());
+        assertNull(read.getCamp());
+        assertEquals(waypoints, read.getWaypoints());
+    }
+
+    @Test
+    void roundTripsCampBannerData() throws IOException {
+        final var campBanners = new HashMap<BlockPos, UUID>();
+        final var owner = UUID.randomUUID();
+        campBanners.put(BlockPos.of(WORLD, 1, 2, 3), owner);
+        campBanners.put(BlockPos.of(WORLD, -4, 5, -6), UUID.randomUUID());
+        final var bannerDesigns = new HashMap<UUID, CampBannerMap.BannerDesign>();
+        bannerDesigns.put(owner, new CampBannerMap.BannerDesign(Material.RED_BANNER, new Pattern[0]));
+
+        final var file = new File(directory, "campbanners.bin");
+        try (final var writer = new BinaryWriter(file)) {
+            writer.writeCampBannerData(campBanners, bannerDesigns);
+        }
+        final var readBanners = new HashMap<BlockPos, UUID>();
+        final var readDesigns = new HashMap<UUID, CampBannerMap.BannerDesign>();
+        try (final var reader = new BinaryReader(file)) {
+            reader.readCampBannerData(readBanners, readDesigns);
+        }
+
+        assertEquals(campBanners, readBanners);
+        assertEquals(bannerDesigns.keySet(), readDesigns.keySet());
+        assertEquals(Material.RED_BANNER, readDesigns.get(owner).getMaterial());
+        assertArrayEquals(new Pattern[0], readDesigns.get(owner).getPatterns());
+    }
+
+    @Test
+    void rejectsOtherContent() throws IOException {
+        final var file = new File(directory, "traveler.bin");
+        try (final var writer = new BinaryWriter(file)) {
+            writer.writeTravelerFile(new Traveler(1, 0, null, null, new BitSet()));
+        }
+        try (final var reader = new BinaryReader(file)) {
+            assertThrows(IOException.class, () -> reader.readCampBannerData(new HashMap<>(), new HashMap<>()));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedRecord() throws IOException {
+        final var file = new File(directory, "traveler.bin");
+        try (final var writer = new BinaryWriter(file)) {
+            writer.writeTravelerFile(new Traveler(1, 2, BlockPos.of(WORLD, 0, 0, 0), null, new BitSet()));
+        }
+        try (final var randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 1);
+        }
+        try (final var reader = new BinaryReader(file)) {
+            assertThrows(IOException.class, reader::readTravelerFile);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.junit.jupiter.api.Test;
+
+class BlockPosTest {
+
+    private static final UUID WORLD = UUID.randomUUID();
+    private static final UUID OTHER_WORLD = UUID.randomUUID();
+
+    @Test
+    void packsCoordinatesAtTheLimits() {
+        final int[][] coordinates = {
+                { 0, 0, 0 },
+                { 30_000_000, 2047, -30_000_000 },
+                { -30_000_000, -2048, 30_000_000 },
+                { -1, -64, -1 },
+                { 33_554_431, 319, -33_554_432 },
+        };
+        for (final var coordinate : coordinates) {
+            final var position = BlockPos.of(WORLD, coordinate[0], coordinate[1], coordinate[2]);
+            assertEquals(coordinate[0], position.getX());
+            assertEquals(coordinate[1], position.getY());
+            assertEquals(coordinate[2], position.getZ());
+            assertEquals(WORLD, position.getWorldId());
+        }
+    }
+
+    @Test
+    void floorsFractionalCoordinates() {
+        final var position = BlockPos.of(WORLD, -0.5, 64.9, -16.0);
+        assertEquals(-1, position.getX());
+        assertEquals(64, position.getY());
+        assertEquals(-16, position.getZ());
+    }
+
+    @Test
+    void comparesByWorldAndCoordinates() {
+        final var position = BlockPos.of(WORLD, 10, 70, -20);
+        assertEquals(position, BlockPos.of(WORLD, 10.7, 70.2, -19.5));
+        assertEquals(position.hashCode(), BlockPos.of(WORLD, 10, 70, -20).hashCode());
+        assertNotEquals(position, BlockPos.of(OTHER_WORLD, 10, 70, -20));
+        assertNotEquals(position, BlockPos.of(WORLD, 10, 71, -20));
+    }
+
+    @Test
+    void chunkKeyMatchesBukkit() {
+        final int[][] coordinates = { { 0, 0 }, { 15, 16 }, { -1, -17 }, { 29_999_999, -29_999_999 } };
+        for (final var coordinate : coordinates) {
+            final var position = BlockPos.of(WORLD, coordinate[0], 64, coordinate[1]);
+            assertEquals(Chunk.getChunkKey(coordinate[0] >> 4, coordinate[1] >> 4), position.getChunkKey());
+        }
+    }
+
+    @Test
+    void worldChunkKeySeparatesWorldsAndChunks() {
+        final var position = BlockPos.of(WORLD, -1, 64, 17);
+        assertEquals(position.getWorldChunkKey(), BlockPos.of(WORLD, -16, -64, 31).getWorldChunkKey());
+        assertNotEquals(position.getWorldChunkKey(), BlockPos.of(WORLD, 0, 64, 17).getWorldChunkKey());
+        assertNotEquals(position.getWorldChunkKey(), BlockPos.of(WORLD, -1, 64, 15).getWorldChunkKey());
+        assertNotEquals(position.getWorldChunkKey(), BlockPos.of(OTHER_WORLD, -1, 64, 17).getWorldChunkKey());
+        assertEquals(position.getChunkKey(), BlockPos.of(OTHER_WORLD, -1, 64, 17).getChunkKey());
+    }
+}
@@ -0,0 +1,176 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTest {
+
+    @TempDir
+    File directory;
+
+    private ExecutorService ioExecutor;
+    private WaypointsPlugin plugin;
+    private TravelerMap travelerMap;
+
+    @BeforeEach
+    void setUp() {
+        ioExecutor = Executors.newSingleThreadExecutor();
+        plugin = mock(WaypointsPlugin.class);
+        travelerMap = mock(TravelerMap.class);
+        when(plugin.getDataFolder()).thenReturn(directory);
+        when(plugin.isJournalEnabled()).thenReturn(true);
+        when(plugin.getJournalCompactSize()).thenReturn(0);
+        when(plugin.getIoExecutor()).thenReturn(ioExecutor);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger(JournalTest.class.getName()));
+        when(plugin.getTravelerMap()).thenReturn(travelerMap);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ioExecutor.shutdownNow();
+    }
+
+    private void awaitWrites() throws InterruptedException, ExecutionException {
+        ioExecutor.submit(() -> {
+        }).get();
+    }
+
+    private File getSegmentFile(long segment) {
+        return new File(new File(directory, Journal.DIRECTORY), segment + ".log");
+    }
+
+    /**
+     * Journals a traveler change followed by two removals, as three records
+     * of one batch in segment 0.
+     */
+    private UUID writeRecords() throws InterruptedException, ExecutionException {
+        final var uniqueId = UUID.randomUUID();
+        final var journal = new Journal(plugin);
+        final var waypoints = new BitSet();
+        waypoints.set(5);
+        journal.travelerChanged(uniqueId, new Traveler(3, 2, null, null, waypoints),
+                Traveler.CHARGES | Traveler.TOKENS | Traveler.WAYPOINTS);
+        journal.campsRemoved();
+        journal.waypointUnregistered(7);
+        journal.flush();
+        journal.close();
+        awaitWrites();
+        return uniqueId;
+    }
+
+    @Test
+    void replaysRecordsInOrder() throws InterruptedException, ExecutionException {
+        final var uniqueId = writeRecords();
+        final var traveler = new Traveler(0, 0, null, null, new BitSet());
+        when(travelerMap.getOrCreateTraveler(uniqueId)).thenReturn(traveler);
+
+        assertEquals(3, new Journal(plugin).replay());
+
+        final var expectedWaypoints = new BitSet();
+        expectedWaypoints.set(5);
+        final var order = inOrder(travelerMap);
+        order.verify(travelerMap).getOrCreateTraveler(uniqueId);
+        order.verify(travelerMap).setWaypoints(uniqueId, expectedWaypoints);
+        order.verify(travelerMap).removeCamps();
+        order.verify(travelerMap).removeWaypoint(7);
+        assertEquals(3, traveler.getCharges());
+        assertEquals(2, traveler.getTokens());
+    }
+
+    @Test
+    void ignoresTornRecordAtTheEnd() throws IOException, InterruptedException, ExecutionException {
+        final var uniqueId = writeRecords();
+        when(travelerMap.getOrCreateTraveler(uniqueId)).thenReturn(new Traveler(0, 0, null, null, new BitSet()));
+        try (final var file = new RandomAccessFile(getSegmentFile(0), "rw")) {
+            file.setLength(file.length() - 2);
+        }
+
+        assertEquals(2, new Journal(plugin).replay());
+
+        verify(travelerMap).removeCamps();
+        verify(travelerMap, never()).removeWaypoint(anyInt());
+    }
+
+    @Test
+    void stopsAtRecordFailingItsChecksum() throws IOException, InterruptedException, ExecutionException {
+        final var uniqueId = writeRecords();
+        when(travelerMap.getOrCreateTraveler(uniqueId)).thenReturn(new Traveler(0, 0, null, null, new BitSet()));
+        // Flip a bit in the traveler record's UUID, right after its length and checksum
+        try (final var file = new RandomAccessFile(getSegmentFile(0), "rw")) {
+            file.seek(Integer.BYTES * 2 + 1);
+            final var value = file.read();
+            file.seek(Integer.BYTES * 2 + 1);
+            file.write(value ^ 1);
+        }
+
+        assertEquals(0, new Journal(plugin).replay());
+
+        verify(travelerMap, never()).getOrCreateTraveler(any());
+        verify(travelerMap, never()).removeCamps();
+    }
+
+    @Test
+    void continuesInLaterSegments() throws InterruptedException, ExecutionException {
+        final var first = UUID.randomUUID();
+        final var second = UUID.randomUUID();
+        final var journal = new Journal(plugin);
+        journal.travelerChanged(first, new Traveler(1, 0, null, null, new BitSet()), Traveler.CHARGES);
+        assertEquals(0, journal.rotate());
+        journal.travelerChanged(second, new Traveler(2, 0, null, null, new BitSet()), Traveler.CHARGES);
+        journal.homesRemoved();
+        journal.flush();
+        journal.close();
+        awaitWrites();
+
+        assertEquals(Set.of(first, second), new Journal(plugin).getTravelers());
+
+        when(travelerMap.getOrCreateTraveler(any())).thenAnswer(invocation -> new Traveler(0, 0, null, null,
+                new BitSet()));
+        final var replayed = new Journal(plugin);
+        assertEquals(3, replayed.replay());
+        final var order = inOrder(travelerMap);
+        order.verify(travelerMap).getOrCreateTraveler(first);
+        order.verify(travelerMap).getOrCreateTraveler(second);
+        order.verify(travelerMap).removeHomes();
+    }
+
+    @Test
+    void deletesSegmentsThroughCheckpoint() throws InterruptedException, ExecutionException {
+        final var journal = new Journal(plugin);
+        journal.campsRemoved();
+        final var checkpoint = journal.rotate();
+        journal.homesRemoved();
+        journal.flush();
+        ioExecutor.execute(() -> journal.deleteThrough(checkpoint));
+        journal.close();
+        awaitWrites();
+
+        assertFalse(getSegmentFile(0).exists());
+        assertEquals(1, new Journal(plugin).replay());
+        verify(travelerMap, never()).removeCamps();
+        verify(travelerMap).removeHomes();
+    }
+}
@@ -0,0 +1,169 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedTravelerStoreTest {
+
+    private static final UUID WORLD = UUID.randomUUID();
+
+    @TempDir
+    File directory;
+
+    @BeforeAll
+    static void installServer() {
+        TestServer.get();
+    }
+
+    private File getFile() {
+        return new File(directory, MappedTravelerStore.FILENAME);
+    }
+
+    private static Traveler createTraveler(int seed) {
+        final var waypoints = new BitSet();
+        waypoints.set(seed % 100);
+        return new Traveler(seed, seed * 2, BlockPos.of(WORLD, seed, 64, -seed),
+                seed % 2 == 0 ? BlockPos.of(WORLD, -seed, 70, seed) : null, waypoints);
+    }
+
+    private static void assertTraveler(Traveler expected, Traveler actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getCharges(), actual.getCharges());
+        assertEquals(expected.getTokens(), actual.getTokens());
+        assertEquals(expected.getHome(), actual.getHome());
+        assertEquals(expected.getCamp(), actual.getCamp());
+        assertEquals(expected.getWaypoints(), actual.getWaypoints());
+    }
+
+    @Test
+    void readsWhatWasWritten() throws IOException {
+        final var store = new MappedTravelerStore(getFile());
+        final var uniqueId = UUID.randomUUID();
+        store.write(uniqueId, createTraveler(4));
+        assertTraveler(createTraveler(4), store.read(uniqueId));
+        assertNull(store.read(UUID.randomUUID()));
+
+        store.write(uniqueId, createTraveler(5));
+        assertTraveler(createTraveler(5), store.read(uniqueId));
+        store.close();
+    }
+
+    @Test
+    void keepsTravelersAcrossRebuildsAndReopening() throws IOException {
+        final var uniqueIds = new ArrayList<UUID>();
+        var store = new MappedTravelerStore(getFile());
+        // Past half of the initial capacity twice
+        for (var i = 0; i < 1500; i++) {
+            uniqueIds.add(UUID.randomUUID());
+            store.write(uniqueIds.get(i), createTraveler(i));
+        }
+        for (var i = 0; i < uniqueIds.size(); i++) {
+            assertTraveler(createTraveler(i), store.read(uniqueIds.get(i)));
+        }
+        store.close();
+
+        store = new MappedTravelerStore(getFile());
+        for (var i = 0; i < uniqueIds.size(); i++) {
+            assertTraveler(createTraveler(i), store.read(uniqueIds.get(i)));
+        }
+        store.close();
+    }
+
+    @Test
+    void deleteKeepsTheRestOfTheClusterReachable() throws IOException {
+        final var uniqueIds = new ArrayList<UUID>();
+        final var store = new MappedTravelerStore(getFile());
+        for (var i = 0; i < 500; i++) {
+            uniqueIds.add(UUID.randomUUID());
+            store.write(uniqueIds.get(i), createTraveler(i));
+        }
+        for (var i = 0; i < uniqueIds.size(); i += 3) {
+            store.delete(uniqueIds.get(i));
+        }
+        store.delete(UUID.randomUUID());
+
+        final var visited = new HashSet<UUID>();
+        store.forEach((uniqueId, traveler) -> visited.add(uniqueId));
+        for (var i = 0; i < uniqueIds.size(); i++) {
+            if (i % 3 == 0) {
+                assertNull(store.read(uniqueIds.get(i)));
+            } else {
+                assertTraveler(createTraveler(i), store.read(uniqueIds.get(i)));
+            }
+        }
+        assertEquals(uniqueIds.size() - (uniqueIds.size() + 2) / 3, visited.size());
+        store.close();
+    }
+
+    @Test
+    void storesLargeWaypointSetsOutOfLine() throws IOException {
+        final var uniqueId = UUID.randomUUID();
+        final var waypoints = new BitSet();
+        for (var id = 0; id < 1000; id += 7) {
+            waypoints.set(id);
+        }
+        var store = new MappedTravelerStore(getFile());
+        store.write(uniqueId, new Traveler(1, 0, null, null, waypoints));
+        store.write(UUID.randomUUID(), createTraveler(1));
+        store.close();
+
+        store = new MappedTravelerStore(getFile());
+        assertEquals(waypoints, store.read(uniqueId).getWaypoints());
+
+        final var fewer = new BitSet();
+        fewer.set(3);
+        store.write(uniqueId, new Traveler(1, 0, null, null, fewer));
+        assertEquals(fewer, store.read(uniqueId).getWaypoints());
+        store.close();
+    }
+
+    @Test
+    void updateAllWritesChangedTravelersAndDeletesEmptiedOnes() throws IOException {
+        final var kept = UUID.randomUUID();
+        final var emptied = UUID.randomUUID();
+        final var store = new MappedTravelerStore(getFile());
+        store.write(kept, new Traveler(2, 0, BlockPos.of(WORLD, 0, 64, 0), null, new BitSet()));
+        store.write(emptied, new Traveler(0, 0, BlockPos.of(WORLD, 8, 64, 8), null, new BitSet()));
+
+        store.updateAll(traveler -> traveler.setHome(null));
+
+        assertEquals(2, store.read(kept).getCharges());
+        assertNull(store.read(kept).getHome());
+        assertNull(store.read(emptied));
+        store.close();
+    }
+
+    @Test
+    void keepsWorldsOnlyKnownByName() throws IOException {
+        final var uniqueId = UUID.randomUUID();
+        final var home = BlockPos.of("unloaded_world", 12, 80, -40);
+        var store = new MappedTravelerStore(getFile());
+        store.write(uniqueId, new Traveler(0, 0, home, null, new BitSet()));
+        store.close();
+
+        store = new MappedTravelerStore(getFile());
+        final var read = store.read(uniqueId).getHome();
+        assertEquals(home, read);
+        assertEquals("unloaded_world", read.getWorldName());
+
+        // A name too long for the slot keeps the location already there
+        final var camp = BlockPos.of(WORLD, 1, 2, 3);
+        store.write(uniqueId, new Traveler(0, 0, BlockPos.of("a_world_name_too_long_to_store", 0, 0, 0), camp,
+                new BitSet()));
+        assertEquals(home, store.read(uniqueId).getHome());
+        assertEquals(camp, store.read(uniqueId).getCamp());
+        store.close();
+    }
+}
@@ -0,0 +1,36 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.mockito.Mockito.mock;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+/**
+ * A mocked server for the parts of the plugin that look worlds up through
+ * {@link Bukkit}. No world is loaded unless a test stubs one.
+ */
+final class TestServer {
+
+    private static Server server;
+
+    private TestServer() {
+    }
+
+    /**
+     * Installs the mocked server on first use. {@link Bukkit#setServer} needs
+     * far more of a server than these tests do, so it is set directly.
+     */
+    static synchronized Server get() {
+        if (server == null) {
+            server = mock(Server.class);
+            try {
+                final var field = Bukkit.class.getDeclaredField("server");
+                field.setAccessible(true);
+                field.set(null, server);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return server;
+    }
+}